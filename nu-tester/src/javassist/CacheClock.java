@@ -0,0 +1,225 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999-2007 Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the memory used by the <code>CtClass</code> objects cached in
+ * a <code>ClassPool</code> in check.
+ *
+ * <p>The cached classes are visited in turn, like by the hand of a
+ * clock, a few at each call to <code>ClassPool.compress()</code>, so
+ * that every class is visited once every <code>COMPRESS_THRESHOLD</code>
+ * calls.  A visited class releases or compacts its class file as
+ * <code>CtClass.compress()</code> decides.  While the class files held
+ * by the pool are larger than the budget, the hand also evicts the
+ * classes that have not been used since it last visited them, have not
+ * been modified, and can be read again from the class path.
+ *
+ * <p>The sizes are those of the class files as read from the class
+ * path, which stand for the memory a <code>CtClass</code> holds.
+ */
+final class CacheClock {
+    private static final int COMPRESS_THRESHOLD = 100;
+
+    private final ArrayList entries = new ArrayList();
+    private int hand = 0;
+    private volatile long budget = 0;    // 0 if unlimited.
+
+    private final AtomicLong heldBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    static final class Entry {
+        final String name;
+        final CtClass clazz;
+        final boolean dynamic;
+        volatile boolean dead = false;    // removed at the next visit.
+
+        Entry(String name, CtClass clazz, boolean dynamic) {
+            this.name = name;
+            this.clazz = clazz;
+            this.dynamic = dynamic;
+        }
+    }
+
+    long getBudget() { return budget; }
+
+    void setBudget(long bytes) { budget = bytes; }
+
+    void hit() { hits.incrementAndGet(); }
+
+    void miss() { misses.incrementAndGet(); }
+
+    /**
+     * Records the change of the size of the class files held.
+     */
+    void held(long bytes) { heldBytes.addAndGet(bytes); }
+
+    /**
+     * Starts visiting a class that has been cached.
+     *
+     * @param dynamic   true if the class is not read from the class path.
+     */
+    void add(String classname, CtClass clazz, boolean dynamic) {
+        if (clazz == null)
+            return;
+
+        if (clazz instanceof CtClassType)
+            ((CtClassType)clazz).startCounting();
+
+        synchronized (entries) {
+            entries.add(new Entry(classname, clazz, dynamic));
+        }
+    }
+
+    /**
+     * Moves the hand forward.  It is invoked by
+     * <code>ClassPool.compress()</code>.
+     *
+     * <p>The entries are locked only while the hand picks the next ones
+     * to visit, and they are visited after the lock is released.
+     * A thread in <code>CtClassType.getMembers()</code> may be calling
+     * this method while holding the lock of its class, so visiting
+     * never waits for the lock of a class: a class in use by another
+     * thread is skipped.
+     */
+    void step(ClassPool pool) {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+
+        int steps = size / COMPRESS_THRESHOLD + 1;
+        int visited = 0;
+        do {
+            Entry[] batch;
+            synchronized (entries) {
+                if (entries.isEmpty())
+                    return;
+
+                batch = next(steps);
+            }
+
+            visited += steps;
+            for (int i = 0; i < batch.length; i++)
+                visit(pool, batch[i]);
+        } while (visited < size && overBudget());
+    }
+
+    /* Moves the hand over n entries and returns those still cached
+     * when they were last visited.  The entries must be locked.
+     */
+    private Entry[] next(int n) {
+        ArrayList batch = new ArrayList();
+        for (int i = 0; i < n && !entries.isEmpty(); i++) {
+            if (hand >= entries.size())
+                hand = 0;
+
+            Entry e = (Entry)entries.get(hand);
+            if (e.dead)
+                remove(hand);
+            else {
+                batch.add(e);
+                hand++;
+            }
+        }
+
+        return (Entry[])batch.toArray(new Entry[batch.size()]);
+    }
+
+    private void visit(ClassPool pool, Entry e) {
+        if (pool.getCachedStrongly(e.name) != e.clazz) {
+            // detached, flushed, softened, renamed or replaced.
+            if (isRenamed(pool, e) || forget(e.clazz))
+                e.dead = true;
+        }
+        else if (overBudget() && isEvictable(e)) {
+            int size = ((CtClassType)e.clazz).forgetClassFile();
+            if (size >= 0) {
+                e.dead = true;
+                pool.removeCached(e.name);
+                held(-size);
+                evictions.incrementAndGet();
+            }
+        }
+        else if (e.clazz.compress())
+            compactions.incrementAndGet();
+    }
+
+    /**
+     * Stops counting the class file of a class that has left the cache.
+     *
+     * @return false if another thread is using the class, so that
+     *          it cannot be forgotten now.
+     */
+    boolean forget(CtClass clazz) {
+        if (!(clazz instanceof CtClassType))
+            return true;
+
+        int size = ((CtClassType)clazz).forgetClassFile();
+        if (size < 0)
+            return false;
+
+        held(-size);
+        return true;
+    }
+
+    /* Returns true if the class is still cached under its new name,
+     * where it has an entry of its own.
+     */
+    private static boolean isRenamed(ClassPool pool, Entry e) {
+        String name = e.clazz.getName();
+        return !name.equals(e.name) && pool.getCachedStrongly(name) == e.clazz;
+    }
+
+    private boolean overBudget() {
+        long limit = budget;
+        return limit > 0 && heldBytes.get() > limit;
+    }
+
+    private static boolean isEvictable(Entry e) {
+        if (e.dynamic || !(e.clazz instanceof CtClassType))
+            return false;
+
+        CtClassType c = (CtClassType)e.clazz;
+        return !c.isModified() && !c.isFrozen() && !c.recentlyUsed();
+    }
+
+    /* The order of the entries does not matter, so the last entry
+     * fills the gap.
+     */
+    private void remove(int i) {
+        int last = entries.size() - 1;
+        entries.set(i, entries.get(last));
+        entries.remove(last);
+    }
+
+    ClassCacheStats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+
+        return new ClassCacheStats(size, heldBytes.get(), budget,
+                                   hits.get(), misses.get(),
+                                   evictions.get(), compactions.get());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999-2007 Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+/**
+ * A snapshot of the statistics of the <code>CtClass</code> cache of
+ * a <code>ClassPool</code>.
+ *
+ * @see ClassPool#getCacheStats()
+ * @see ClassPool#setCacheBudget(long)
+ */
+public final class ClassCacheStats {
+    private final int size;
+    private final long heldBytes;
+    private final long budget;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long compactions;
+
+    ClassCacheStats(int size, long heldBytes, long budget, long hits,
+                    long misses, long evictions, long compactions) {
+        this.size = size;
+        this.heldBytes = heldBytes;
+        this.budget = budget;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.compactions = compactions;
+    }
+
+    /**
+     * Returns the number of cached classes watched by the pool,
+     * including those that left the cache since the pool last
+     * looked at them.
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Returns the size of the class files held by the cached
+     * classes, in bytes.
+     */
+    public long getHeldBytes() { return heldBytes; }
+
+    /**
+     * Returns the cache budget in bytes, or 0 if it is unlimited.
+     */
+    public long getBudget() { return budget; }
+
+    /**
+     * Returns how many times <code>get()</code> found a cached class.
+     */
+    public long getHits() { return hits; }
+
+    /**
+     * Returns how many times <code>get()</code> had to look for
+     * a class that was not cached.
+     */
+    public long getMisses() { return misses; }
+
+    /**
+     * Returns how many classes were evicted to keep within the budget.
+     */
+    public long getEvictions() { return evictions; }
+
+    /**
+     * Returns how many times a cached class released or compacted
+     * its class file.
+     */
+    public long getCompactions() { return compactions; }
+
+    public String toString() {
+        return "[classes: " + size + ", held bytes: " + heldBytes
+               + ", budget: " + (budget == 0 ? "unlimited" : "" + budget)
+               + ", hits: " + hits + ", misses: " + misses
+               + ", evictions: " + evictions
+               + ", compactions: " + compactions + "]";
+    }
+}
@@ -29,7 +29,6 @@ import java.security.ProtectionDomain;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import javassist.bytecode.Descriptor;
 
 /**
@@ -120,8 +119,12 @@ public class ClassPool {
      */
     public static boolean doPruning = false;
 
-    private int compressCount;
-    private static final int COMPRESS_THRESHOLD = 100;
+    /**
+     * Watches the memory used by the cached classes.
+     */
+    final CacheClock clock = new CacheClock();
+
+    private SharedClassFiles sharedClassFiles = null;
 
     /* releaseUnmodifiedClassFile was introduced for avoiding a bug
        of JBoss AOP.  So the value should be true except for JBoss AOP.
@@ -188,7 +191,6 @@ public class ClassPool {
         }
 
         this.cflow = null;
-        this.compressCount = 0;
         clearImportedPackages();
     }
 
@@ -247,6 +249,7 @@ public class ClassPool {
      */
     protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
         classes.put(classname, c);
+        clock.add(classname, c, dynamic);
     }
 
     /**
@@ -260,6 +263,16 @@ public class ClassPool {
         return (CtClass)classes.remove(classname);
     }
 
+    /**
+     * Returns the class that this pool itself holds in its cache.
+     * Unlike <code>getCached()</code>, it does not look at the caches
+     * that subclasses keep elsewhere, for example with soft references.
+     * Only these classes are compressed and counted against the budget.
+     */
+    CtClass getCachedStrongly(String classname) {
+        return (CtClass)classes.get(classname);
+    }
+
     /**
      * Returns the class search path.
      */
@@ -269,15 +282,51 @@ public class ClassPool {
 
     /**
      * This method is periodically invoked so that memory
-     * footprint will be minimized.
+     * footprint will be minimized.  Every call visits a few of the
+     * cached classes, so that all of them are visited once every
+     * hundred calls or so.
      */
     void compress() {
-        if (compressCount++ > COMPRESS_THRESHOLD) {
-            compressCount = 0;
-            Enumeration e = classes.elements();
-            while (e.hasMoreElements())
-                ((CtClass)e.nextElement()).compress();
-        }
+        clock.step(this);
+    }
+
+    /**
+     * Limits the memory used by the cached <code>CtClass</code> objects.
+     * While the class files they hold are larger than the given number
+     * of bytes, <code>CtClass</code> objects that have not been
+     * modified or frozen and have not been recently used are removed
+     * from the cache, as by <code>CtClass.detach()</code>, so that
+     * <code>get()</code> reads them again from the class path when
+     * they are needed.  Classes made by <code>makeClass()</code> etc.
+     * are never removed.
+     *
+     * <p>Since a removed <code>CtClass</code> object is no longer
+     * returned by <code>get()</code>, do not keep references to
+     * <code>CtClass</code> objects you are going to modify later
+     * if a budget is set.
+     *
+     * @param bytes     the budget in bytes of class files, or 0
+     *                  for no limit, which is the default.
+     * @see #getCacheStats()
+     */
+    public void setCacheBudget(long bytes) {
+        clock.setBudget(bytes);
+    }
+
+    /**
+     * Returns the budget set by <code>setCacheBudget()</code>.
+     */
+    public long getCacheBudget() {
+        return clock.getBudget();
+    }
+
+    /**
+     * Returns the statistics of the cache of <code>CtClass</code> objects.
+     *
+     * @see #setCacheBudget(long)
+     */
+    public ClassCacheStats getCacheStats() {
+        return clock.stats();
     }
 
     /**
@@ -478,8 +527,12 @@ public class ClassPool {
         CtClass clazz = null;
         if (useCache) {
             clazz = getCached(classname);
-            if (clazz != null)
+            if (clazz != null) {
+                clock.hit();
                 return clazz;
+            }
+
+            clock.miss();
         }
 
         if (!childFirstLookup && parent != null) {
@@ -594,6 +647,65 @@ public class ClassPool {
         return source.openClassfile(classname);
     }
 
+    /* for CtClassType.getClassFile2().  Don't delegate to the parent.
+     * It returns null if the class file has not been found.
+     * The returned bytes must not be modified.
+     */
+    byte[] readClassfile(String classname)
+        throws NotFoundException, IOException
+    {
+        SharedClassFiles shared = sharedClassFiles;
+        String key = null;
+        if (shared != null) {
+            URL url = source.find(classname);
+            key = url == null ? null : SharedClassFiles.keyOf(url);
+            if (key != null) {
+                byte[] bytes = shared.get(key);
+                if (bytes != null)
+                    return bytes;
+            }
+        }
+
+        InputStream fin = openClassfile(classname);
+        if (fin == null)
+            return null;
+
+        byte[] bytes;
+        try {
+            bytes = ClassPoolTail.readStream(fin);
+        }
+        finally {
+            fin.close();
+        }
+
+        if (key != null)
+            bytes = shared.put(key, bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Makes this class pool share the class files it reads from jar
+     * files and the Java runtime image with the other class pools using
+     * the given store.  By default, a class pool does not share class
+     * files; <code>ScopedClassPool</code>s share them through
+     * <code>SharedClassFiles.getDefault()</code>.
+     *
+     * @param store     the store, or null to stop sharing.
+     * @see SharedClassFiles
+     */
+    public void setSharedClassFiles(SharedClassFiles store) {
+        sharedClassFiles = store;
+    }
+
+    /**
+     * Returns the store set by <code>setSharedClassFiles()</code>,
+     * or null.
+     */
+    public SharedClassFiles getSharedClassFiles() {
+        return sharedClassFiles;
+    }
+
     void writeClassfile(String classname, OutputStream out)
         throws NotFoundException, IOException, CannotCompileException
     {
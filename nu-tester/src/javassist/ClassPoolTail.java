@@ -19,7 +19,10 @@ import java.io.*;
 import java.util.jar.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Hashtable;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class ClassPathList {
     ClassPathList next;
@@ -31,6 +34,61 @@ final class ClassPathList {
     }
 }
 
+/**
+ * The entries of a class path, with the entries that may contain
+ * the classes of each package.  Only jar files can tell which packages
+ * they contain; any other entry may contain any package.
+ */
+final class PackageIndex {
+    private ClassPath[] entries;
+    private ConcurrentHashMap byPackage;    // package name -> ClassPath[]
+
+    PackageIndex(ClassPathList list) {
+        int n = 0;
+        for (ClassPathList l = list; l != null; l = l.next)
+            n++;
+
+        entries = new ClassPath[n];
+        n = 0;
+        for (ClassPathList l = list; l != null; l = l.next)
+            entries[n++] = l.path;
+
+        byPackage = new ConcurrentHashMap();
+    }
+
+    /**
+     * Returns the entries that may contain the given class,
+     * in class path order.
+     */
+    ClassPath[] lookup(String classname) {
+        int i = classname.lastIndexOf('.');
+        String pkg = i < 0 ? "" : classname.substring(0, i);
+        ClassPath[] found = (ClassPath[])byPackage.get(pkg);
+        if (found == null) {
+            ClassPath[] tmp = new ClassPath[entries.length];
+            int n = 0;
+            for (int j = 0; j < entries.length; j++)
+                if (mayContain(entries[j], pkg))
+                    tmp[n++] = entries[j];
+
+            found = new ClassPath[n];
+            System.arraycopy(tmp, 0, found, 0, n);
+            byPackage.put(pkg, found);
+        }
+
+        return found;
+    }
+
+    private static boolean mayContain(ClassPath cp, String pkg) {
+        if (cp instanceof JarClassPath)
+            return ((JarClassPath)cp).hasPackage(pkg);
+        else if (cp instanceof JarDirClassPath)
+            return ((JarDirClassPath)cp).hasPackage(pkg);
+        else
+            return true;
+    }
+}
+
 final class DirClassPath implements ClassPath {
     String directory;
 
@@ -112,6 +170,15 @@ final class JarDirClassPath implements ClassPath {
         return null;    // not found
     }
 
+    boolean hasPackage(String pkg) {
+        if (jars != null)
+            for (int i = 0; i < jars.length; i++)
+                if (jars[i].hasPackage(pkg))
+                    return true;
+
+        return false;
+    }
+
     public void close() {
         if (jars != null)
             for (int i = 0; i < jars.length; i++)
@@ -122,6 +189,7 @@ final class JarDirClassPath implements ClassPath {
 final class JarClassPath implements ClassPath {
     JarFile jarfile;
     String jarfileURL;
+    private Set packages;   // the names of the packages in the jar file
 
     JarClassPath(String pathname) throws NotFoundException {
         try {
@@ -162,6 +230,29 @@ final class JarClassPath implements ClassPath {
         return null;            // not found
     }
 
+    /**
+     * Returns true if the jar file contains a class file
+     * in the given package.  The packages are listed on the first call.
+     */
+    synchronized boolean hasPackage(String pkg) {
+        if (packages == null) {
+            packages = new HashSet();
+            if (jarfile != null) {
+                Enumeration e = jarfile.entries();
+                while (e.hasMoreElements()) {
+                    String name = ((JarEntry)e.nextElement()).getName();
+                    if (name.endsWith(".class")) {
+                        int i = name.lastIndexOf('/');
+                        packages.add(i < 0 ? ""
+                                     : name.substring(0, i).replace('/', '.'));
+                    }
+                }
+            }
+        }
+
+        return packages.contains(pkg);
+    }
+
     public void close() {
         try {
             jarfile.close();
@@ -177,11 +268,12 @@ final class JarClassPath implements ClassPath {
 
 final class ClassPoolTail {
     protected ClassPathList pathList;
-    private Hashtable packages;         // should be synchronized.
+    private ConcurrentHashMap packages;     // read without locking.
+    private volatile PackageIndex index;    // null if pathList changed.
 
     public ClassPoolTail() {
         pathList = null;
-        packages = new Hashtable();
+        packages = new ConcurrentHashMap();
     }
 
     public String toString() {
@@ -200,6 +292,7 @@ final class ClassPoolTail {
 
     public synchronized ClassPath insertClassPath(ClassPath cp) {
         pathList = new ClassPathList(cp, pathList);
+        index = null;
         return cp;
     }
 
@@ -215,6 +308,7 @@ final class ClassPoolTail {
             list.next = tail;
         }
 
+        index = null;
         return cp;
     }
 
@@ -231,9 +325,27 @@ final class ClassPoolTail {
                         list = list.next;
             }
 
+        index = null;
         cp.close();
     }
 
+    /**
+     * Returns the entries of the class path that may contain
+     * the given class.  The package index is built again after
+     * the class path changes.
+     */
+    private ClassPath[] lookup(String classname) {
+        PackageIndex idx = index;
+        if (idx == null)
+            synchronized (this) {
+                idx = index;
+                if (idx == null)
+                    index = idx = new PackageIndex(pathList);
+            }
+
+        return idx.lookup(classname);
+    }
+
     public ClassPath appendSystemPath() {
         return appendClassPath(new ClassClassPath());
     }
@@ -327,21 +439,19 @@ final class ClassPoolTail {
         if (packages.get(classname) != null)
             return null;    // not found
 
-        ClassPathList list = pathList;
+        ClassPath[] list = lookup(classname);
         InputStream ins = null;
         NotFoundException error = null;
-        while (list != null) {
+        for (int i = 0; i < list.length; i++) {
             try {
-                ins = list.path.openClassfile(classname);
+                ins = list[i].openClassfile(classname);
             }
             catch (NotFoundException e) {
                 if (error == null)
                     error = e;
             }
 
-            if (ins == null)
-                list = list.next;
-            else
+            if (ins != null)
                 return ins;
         }
 
@@ -363,13 +473,10 @@ final class ClassPoolTail {
         if (packages.get(classname) != null)
             return null;
 
-        ClassPathList list = pathList;
-        URL url = null;
-        while (list != null) {
-            url = list.path.find(classname);
-            if (url == null)
-                list = list.next;
-            else
+        ClassPath[] list = lookup(classname);
+        for (int i = 0; i < list.length; i++) {
+            URL url = list[i].find(classname);
+            if (url != null)
                 return url;
         }
 
@@ -379,36 +486,89 @@ final class ClassPoolTail {
     /**
      * Reads from an input stream until it reaches the end.
      *
+     * <p>If the stream tells how many bytes are available, as the
+     * streams of jar entries and files do, they are read into an array
+     * of that size and not copied again.
+     *
      * @return          the contents of that input stream
      */
     public static byte[] readStream(InputStream fin) throws IOException {
-        byte[][] bufs = new byte[8][];
-        int bufsize = 4096;
-
-        for (int i = 0; i < 8; ++i) {
-            bufs[i] = new byte[bufsize];
-            int size = 0;
+        int size = fin.available();
+        if (size > 0 && size <= MAX_STREAM_SIZE) {
+            byte[] bytes = new byte[size];
             int len = 0;
-            do {
-                len = fin.read(bufs[i], size, bufsize - size);
-                if (len >= 0)
-                    size += len;
-                else {
-                    byte[] result = new byte[bufsize - 4096 + size];
-                    int s = 0;
-                    for (int j = 0; j < i; ++j) {
-                        System.arraycopy(bufs[j], 0, result, s, s + 4096);
-                        s = s + s + 4096;
-                    }
+            while (len < size) {
+                int n = fin.read(bytes, len, size - len);
+                if (n < 0)
+                    break;
 
-                    System.arraycopy(bufs[i], 0, result, s, size);
-                    return result;
-                }
-            } while (size < bufsize);
-            bufsize *= 2;
+                len += n;
+            }
+
+            int next = len < size ? -1 : fin.read();
+            if (next < 0) {
+                if (len == size)
+                    return bytes;
+
+                byte[] result = new byte[len];
+                System.arraycopy(bytes, 0, result, 0, len);
+                return result;
+            }
+
+            // available() was not the whole size.
+            return readRest(fin, bytes, len, next);
         }
 
-        throw new IOException("too much data");
+        return readRest(fin, new byte[4096], 0, -1);
+    }
+
+    private static final int MAX_STREAM_SIZE = 4096 * 255;
+
+    /* Reads the rest of the stream into a buffer doubled as needed.
+     * The first len bytes have been read into buf, and next is the byte
+     * read after them or -1 if there is none.
+     */
+    private static byte[] readRest(InputStream fin, byte[] buf, int len,
+                                   int next) throws IOException {
+        if (next >= 0) {
+            if (len == buf.length)
+                buf = grow(buf, len);
+
+            buf[len++] = (byte)next;
+        }
+
+        while (true) {
+            if (len == buf.length) {
+                next = fin.read();
+                if (next < 0)
+                    return buf;
+
+                buf = grow(buf, len);
+                buf[len++] = (byte)next;
+            }
+
+            int n = fin.read(buf, len, buf.length - len);
+            if (n < 0)
+                break;
+
+            len += n;
+        }
+
+        if (len == buf.length)
+            return buf;
+
+        byte[] result = new byte[len];
+        System.arraycopy(buf, 0, result, 0, len);
+        return result;
+    }
+
+    private static byte[] grow(byte[] buf, int len) throws IOException {
+        if (len >= MAX_STREAM_SIZE)
+            throw new IOException("too much data");
+
+        byte[] bigger = new byte[Math.min(buf.length * 2, MAX_STREAM_SIZE)];
+        System.arraycopy(buf, 0, bigger, 0, len);
+        return bigger;
     }
 
     /**
@@ -0,0 +1,180 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999-2007 Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class pool for multi-threaded programs.
+ *
+ * <p><code>ClassPool</code> synchronizes <code>get()</code> on the whole
+ * pool, so threads getting classes from one pool wait for each other
+ * even if the classes are already cached.  This class pool keeps its
+ * <code>CtClass</code> objects in a concurrent hash table and does not
+ * lock anything for getting a cached class.  If several threads get
+ * the same class that is not cached yet, only one of them creates the
+ * <code>CtClass</code> object and the others wait for it; threads
+ * getting different classes do not wait for each other.
+ *
+ * <p>Only <code>get()</code> is made concurrent.  The other methods
+ * of <code>ClassPool</code>, such as <code>makeClass()</code>, are
+ * still synchronized.  Note that <code>CtClass</code> objects are not
+ * thread-safe: modifying a class from several threads at once needs
+ * its own synchronization.
+ *
+ * @see ClassPool
+ */
+public class ConcurrentClassPool extends ClassPool {
+    private ConcurrentHashMap cache;        // class name -> CtClass
+    private ConcurrentHashMap creating;     // class name -> lock
+
+    /**
+     * Creates a root class pool.  No parent class pool is specified.
+     */
+    public ConcurrentClassPool() {
+        this(null);
+    }
+
+    /**
+     * Creates a root class pool.  If <code>useDefaultPath</code> is
+     * true, <code>appendSystemPath()</code> is called.
+     *
+     * @param useDefaultPath    true if the system search path is
+     *                          appended.
+     */
+    public ConcurrentClassPool(boolean useDefaultPath) {
+        this(null);
+        if (useDefaultPath)
+            appendSystemPath();
+    }
+
+    /**
+     * Creates a class pool.
+     *
+     * @param parent    the parent of this class pool.  If this is a root
+     *                  class pool, this parameter must be <code>null</code>.
+     */
+    public ConcurrentClassPool(ClassPool parent) {
+        super(parent);
+        cache = new ConcurrentHashMap(classes);     // the primitive types
+        creating = new ConcurrentHashMap();
+    }
+
+    protected CtClass getCached(String classname) {
+        return (CtClass)cache.get(classname);
+    }
+
+    protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+        cache.put(classname, c);
+        clock.add(classname, c, dynamic);
+    }
+
+    /**
+     * Provides a hook so that subclasses can do their own caching of
+     * the classes created by <code>get()</code>.  Unlike
+     * <code>cacheCtClass()</code>, it must not replace a class cached
+     * by another thread in the meantime.
+     *
+     * @return the class already cached under the name, or null
+     *         if the given class has been cached.
+     * @see #cacheCtClass(String,CtClass,boolean)
+     */
+    protected CtClass cacheIfAbsent(String classname, CtClass c) {
+        CtClass cached = (CtClass)cache.putIfAbsent(classname, c);
+        if (cached == null)
+            clock.add(classname, c, false);
+
+        return cached;
+    }
+
+    protected CtClass removeCached(String classname) {
+        return (CtClass)cache.remove(classname);
+    }
+
+    CtClass getCachedStrongly(String classname) {
+        return (CtClass)cache.get(classname);
+    }
+
+    /**
+     * Returns the cached class without locking.  Otherwise, the class
+     * is created while holding a lock for its name only.
+     *
+     * @return null     if the class could not be found.
+     */
+    protected CtClass get0(String classname, boolean useCache)
+        throws NotFoundException
+    {
+        if (!useCache)
+            return lookup(classname, false);
+
+        CtClass clazz = getCached(classname);
+        if (clazz != null) {
+            clock.hit();
+            return clazz;
+        }
+
+        clock.miss();
+        Object lock = new Object();
+        Object other = creating.putIfAbsent(classname, lock);
+        if (other != null)
+            lock = other;
+
+        synchronized (lock) {
+            try {
+                clazz = getCached(classname);
+                if (clazz != null)
+                    return clazz;
+
+                return lookup(classname, true);
+            }
+            finally {
+                creating.remove(classname, lock);
+            }
+        }
+    }
+
+    /**
+     * Does what <code>ClassPool.get0()</code> does after looking
+     * at the cache.
+     */
+    private CtClass lookup(String classname, boolean useCache)
+        throws NotFoundException
+    {
+        CtClass clazz = null;
+        if (!childFirstLookup && parent != null) {
+            clazz = parent.get0(classname, useCache);
+            if (clazz != null)
+                return clazz;
+        }
+
+        clazz = createCtClass(classname, useCache);
+        if (clazz != null) {
+            // clazz.getName() != classname if classname is "[L<name>;".
+            if (useCache) {
+                CtClass cached = cacheIfAbsent(clazz.getName(), clazz);
+                if (cached != null)
+                    return cached;
+            }
+
+            return clazz;
+        }
+
+        if (childFirstLookup && parent != null)
+            clazz = parent.get0(classname, useCache);
+
+        return clazz;
+    }
+}
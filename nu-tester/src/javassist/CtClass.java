@@ -1126,6 +1126,8 @@ public abstract class CtClass {
         CtClass obj = cp.removeCached(getName());
         if (obj != this)
             cp.cacheCtClass(getName(), obj, false);
+        else
+            cp.clock.forget(this);
     }
 
     /**
@@ -1376,6 +1378,7 @@ public abstract class CtClass {
 
     /* Invoked from ClassPool#compress().
      * This method is overridden by CtClassType.
+     * It returns true if the class file was released or compacted.
      */
-    void compress() {}
+    boolean compress() { return false; }
 }
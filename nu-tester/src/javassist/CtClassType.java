@@ -16,19 +16,19 @@
 package javassist;
 
 import java.lang.ref.WeakReference;
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javassist.bytecode.AccessFlag;
 import javassist.bytecode.AttributeInfo;
@@ -74,6 +74,14 @@ class CtClassType extends CtClass {
     private boolean doPruning = ClassPool.doPruning;
     private int getCount;
     private static final int GET_THRESHOLD = 2;     // see compress()
+    private int heldSize;   // the size of the class file read, or -1 if
+                            // the class pool does not count it.
+
+    /* Guards the class file and the member cache.  The class pool only
+     * tries it when it compresses this object, so that a thread holding
+     * it (in getMembers()) never waits for a thread compressing classes.
+     */
+    private final ReentrantLock cacheLock = new ReentrantLock();
 
     CtClassType(String name, ClassPool cp) {
         super(name);
@@ -87,6 +95,7 @@ class CtClassType extends CtClass {
         hiddenMethods = null;
         uniqueNumberSeed = 0;
         getCount = 0;
+        heldSize = -1;      // see startCounting()
     }
 
     CtClassType(InputStream ins, ClassPool cp) throws IOException {
@@ -169,8 +178,7 @@ class CtClassType extends CtClass {
         classPool.compress();
         if (rawClassfile != null) {
             try {
-                classfile = new ClassFile(new DataInputStream(
-                                            new ByteArrayInputStream(rawClassfile)));
+                classfile = new ClassFile(ByteBuffer.wrap(rawClassfile));
                 rawClassfile = null;
                 getCount = GET_THRESHOLD;
                 return classfile;
@@ -180,20 +188,19 @@ class CtClassType extends CtClass {
             }
         }
 
-        InputStream fin = null;
         try {
-            fin = classPool.openClassfile(getName());
-            if (fin == null)
+            byte[] bytes = classPool.readClassfile(getName());
+            if (bytes == null)
                 throw new NotFoundException(getName());
 
-            fin = new BufferedInputStream(fin);
-            ClassFile cf = new ClassFile(new DataInputStream(fin));
+            ClassFile cf = new ClassFile(ByteBuffer.wrap(bytes));
             if (!cf.getName().equals(qualifiedName))
                 throw new RuntimeException("cannot find " + qualifiedName + ": " 
                         + cf.getName() + " found in "
                         + qualifiedName.replace('.', '/') + ".class");
 
             classfile = cf;
+            countClassFile(bytes.length);
             return cf;
         }
         catch (NotFoundException e) {
@@ -202,13 +209,6 @@ class CtClassType extends CtClass {
         catch (IOException e) {
             throw new RuntimeException(e.toString(), e);
         }
-        finally {
-            if (fin != null)
-                try {
-                    fin.close();
-                }
-                catch (IOException e) {}
-        }
     }
 
    /* Inherited from CtClass.  Called by get() in ClassPool.
@@ -222,26 +222,99 @@ class CtClassType extends CtClass {
     * Invoked from ClassPool#compress().
     * It releases the class files that have not been recently used
     * if they are unmodified. 
+    *
+    * It does nothing if another thread is using this object.
+    *
+    * @return true if the class file was released or compacted.
+    */
+   boolean compress() {
+       if (!cacheLock.tryLock())
+           return false;
+
+       try {
+           boolean done = false;
+           if (getCount < GET_THRESHOLD)
+               if (!isModified() && ClassPool.releaseUnmodifiedClassFile)
+                   done = removeClassFile();
+               else if (isFrozen() && !wasPruned)
+                   done = saveClassFile();
+
+           getCount = 0;
+           return done;
+       }
+       finally {
+           cacheLock.unlock();
+       }
+   }
+
+   /**
+    * Returns true if get() in ClassPool has returned this object
+    * at least GET_THRESHOLD times since the last compress().
+    */
+   boolean recentlyUsed() { return getCount >= GET_THRESHOLD; }
+
+   /* Records the size of the class file read from the class path
+    * in the class pool.
+    */
+   private void countClassFile(int size) {
+       cacheLock.lock();
+       try {
+           if (heldSize >= 0) {
+               classPool.clock.held(size - heldSize);
+               heldSize = size;
+           }
+       }
+       finally {
+           cacheLock.unlock();
+       }
+   }
+
+   /**
+    * Invoked when the class pool starts watching this object in its
+    * cache.  Only the class files of such objects are counted.
+    */
+   void startCounting() {
+       cacheLock.lock();
+       try {
+           if (heldSize < 0)
+               heldSize = 0;
+       }
+       finally {
+           cacheLock.unlock();
+       }
+   }
+
+   /**
+    * Invoked when the class pool evicts this object.
+    *
+    * @return the size of the class file that was counted,
+    *          or -1 if another thread is using this object
+    *          and it cannot be evicted now.
     */
-   void compress() {
-       if (getCount < GET_THRESHOLD)
-           if (!isModified() && ClassPool.releaseUnmodifiedClassFile)
-               removeClassFile();
-           else if (isFrozen() && !wasPruned)
-               saveClassFile();
-
-       getCount = 0;
+   int forgetClassFile() {
+       if (!cacheLock.tryLock())
+           return -1;
+
+       try {
+           int size = heldSize < 0 ? 0 : heldSize;
+           heldSize = -1;
+           return size;
+       }
+       finally {
+           cacheLock.unlock();
+       }
    }
 
    /**
      * Converts a ClassFile object into a byte array
      * for saving memory space.
      */
-    private synchronized void saveClassFile() {
-        /* getMembers() and releaseClassFile() are also synchronized.
+    private boolean saveClassFile() {
+        /* compress() calls this while holding cacheLock,
+         * which getMembers() also holds.
          */
         if (classfile == null || hasMemberCache() != null)
-            return;
+            return false;
 
         ByteArrayOutputStream barray = new ByteArrayOutputStream();
         DataOutputStream out = new DataOutputStream(barray);
@@ -250,13 +323,24 @@ class CtClassType extends CtClass {
             barray.close();
             rawClassfile = barray.toByteArray();
             classfile = null;
+            return true;
         }
         catch (IOException e) {}
+        return false;
     }
 
-    private synchronized void removeClassFile() {
-        if (classfile != null && !isModified() && hasMemberCache() == null)
+    private boolean removeClassFile() {     // see saveClassFile()
+        if (classfile != null && !isModified() && hasMemberCache() == null) {
             classfile = null;
+            if (heldSize > 0) {
+                classPool.clock.held(-heldSize);
+                heldSize = 0;
+            }
+
+            return true;
+        }
+
+        return false;
     }
 
     public ClassPool getClassPool() { return classPool; }
@@ -743,17 +827,23 @@ class CtClassType extends CtClass {
             return null;
     }
 
-    protected synchronized CtMember.Cache getMembers() {
-        CtMember.Cache cache = null;
-        if (memberCache == null
-            || (cache = (CtMember.Cache)memberCache.get()) == null) {
-            cache = new CtMember.Cache(this);
-            makeFieldCache(cache);
-            makeBehaviorCache(cache);
-            memberCache = new WeakReference(cache);
-        }
+    protected CtMember.Cache getMembers() {
+        cacheLock.lock();
+        try {
+            CtMember.Cache cache = null;
+            if (memberCache == null
+                || (cache = (CtMember.Cache)memberCache.get()) == null) {
+                cache = new CtMember.Cache(this);
+                makeFieldCache(cache);
+                makeBehaviorCache(cache);
+                memberCache = new WeakReference(cache);
+            }
 
-        return cache;
+            return cache;
+        }
+        finally {
+            cacheLock.unlock();
+        }
     }
 
     private void makeFieldCache(CtMember.Cache cache) {
@@ -0,0 +1,158 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999-2007 Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A store of class files shared by class pools.
+ *
+ * <p>Class pools that share a store read each class file in a jar file
+ * or in the Java runtime image once: the other pools get the same bytes
+ * from the store, keyed by the URL of the class file and the size and
+ * modification time of the jar file, instead of reading and copying it
+ * again.  For example, the <code>ScopedClassPool</code>s
+ * created for the class loaders of an application server all read the
+ * same <code>java.*</code> classes.
+ *
+ * <p>Only the bytes are shared.  Every class pool still makes its own
+ * <code>CtClass</code> objects and parses its own <code>ClassFile</code>
+ * from the bytes, since those are modified in place.  A class that is
+ * not modified can release its <code>ClassFile</code>
+ * (see <code>ClassPool.compress()</code>), and parsing it again from
+ * the shared bytes is cheap.
+ *
+ * <p>A jar file replaced at the same path, for example when an
+ * application is redeployed, is read again since its size or
+ * modification time changes.  Class files in directories and in jar
+ * files that are not local files are not shared since they may be
+ * rewritten, for example by <code>CtClass.writeFile()</code>.
+ * The store holds the bytes by soft references, so they are released
+ * when memory runs short.
+ *
+ * @see ClassPool#setSharedClassFiles(SharedClassFiles)
+ */
+public final class SharedClassFiles {
+    private static final SharedClassFiles defaultStore = new SharedClassFiles();
+
+    private ConcurrentHashMap files = new ConcurrentHashMap();  // key -> SoftReference
+
+    /**
+     * Returns the store shared by the whole process.
+     */
+    public static SharedClassFiles getDefault() {
+        return defaultStore;
+    }
+
+    /**
+     * Returns the key of the class file at the given URL in the store,
+     * or null if the class file cannot be shared.
+     */
+    static String keyOf(URL url) {
+        String protocol = url.getProtocol();
+        if ("jrt".equals(protocol))
+            return url.toString();      // the runtime image never changes.
+
+        if (!"jar".equals(protocol))
+            return null;
+
+        String path = url.getPath();
+        int sep = path.indexOf("!/");
+        if (sep < 0)
+            return null;
+
+        File jar;
+        try {
+            URL jarUrl = new URL(path.substring(0, sep));
+            if (!"file".equals(jarUrl.getProtocol()))
+                return null;
+
+            jar = new File(jarUrl.toURI());
+        }
+        catch (java.net.MalformedURLException e) {
+            return null;
+        }
+        catch (URISyntaxException e) {
+            return null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        long stamp = jar.lastModified();
+        if (stamp == 0L)
+            return null;        // not found
+
+        return url.toString() + '\n' + jar.length() + '\n' + stamp;
+    }
+
+    /**
+     * Returns the bytes of the class file with the given key,
+     * or null if the store does not have them.
+     * The bytes must not be modified.
+     */
+    byte[] get(String key) {
+        SoftReference ref = (SoftReference)files.get(key);
+        if (ref == null)
+            return null;
+
+        byte[] bytes = (byte[])ref.get();
+        if (bytes == null)
+            files.remove(key, ref);
+
+        return bytes;
+    }
+
+    /**
+     * Stores the bytes of the class file with the given key.
+     *
+     * @return the bytes in the store, which are the given bytes
+     *          unless another class pool has stored the same file.
+     */
+    byte[] put(String key, byte[] bytes) {
+        SoftReference ref = new SoftReference(bytes);
+        while (true) {
+            SoftReference old = (SoftReference)files.putIfAbsent(key, ref);
+            if (old == null)
+                return bytes;
+
+            byte[] stored = (byte[])old.get();
+            if (stored != null)
+                return stored;
+
+            if (files.replace(key, old, ref))
+                return bytes;
+        }
+    }
+
+    /**
+     * Returns the number of class files in the store.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Removes all the class files from the store.
+     */
+    public void clear() {
+        files.clear();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999-2007 Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading the remaining bytes of a <code>ByteBuffer</code>.
+ *
+ * <p>Unlike <code>ByteArrayInputStream</code>, its methods are not
+ * synchronized.  <code>DataInputStream</code> reads a class file a few
+ * bytes at a time, so the parser calls them for almost every byte.
+ * Byte arrays are read with a single bulk copy out of the buffer.
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+
+        int n = Math.min(len, buffer.remaining());
+        if (n == 0)
+            return -1;
+
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) {
+        int k = (int)Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + k);
+        return k;
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -18,6 +18,7 @@ package javassist.bytecode;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -85,6 +86,18 @@ public final class ClassFile {
         read(in);
     }
 
+    /**
+     * Constructs a class file from the remaining bytes of a buffer.
+     * The buffer may be a heap buffer, a direct buffer, or a buffer
+     * mapped from a file.  Its position is moved past the class file.
+     *
+     * <p>This is faster than reading the same bytes through a
+     * <code>ByteArrayInputStream</code>, which is synchronized.
+     */
+    public ClassFile(ByteBuffer buffer) throws IOException {
+        this(new DataInputStream(new ByteBufferInputStream(buffer)));
+    }
+
     /**
      * Constructs a class file including no members.
      * 
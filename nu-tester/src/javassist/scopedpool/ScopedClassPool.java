@@ -24,6 +24,7 @@ import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.LoaderClassPath;
 import javassist.NotFoundException;
+import javassist.SharedClassFiles;
 
 /**
  * A scoped class pool.
@@ -81,6 +82,8 @@ public class ScopedClassPool extends ClassPool {
     {
        super(src);
        this.repository = repository;
+       // the pools of the class loaders read the same library classes
+       setSharedClassFiles(SharedClassFiles.getDefault());
        this.classLoader = new WeakReference(cl);
        if (cl != null) {
            classPath = new LoaderClassPath(cl);
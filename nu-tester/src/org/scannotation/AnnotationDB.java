@@ -6,23 +6,36 @@ import javassist.bytecode.FieldInfo;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.ParameterAnnotationsAttribute;
 import javassist.bytecode.annotation.Annotation;
+import org.scannotation.archiveiterator.FileIterator;
 import org.scannotation.archiveiterator.Filter;
 import org.scannotation.archiveiterator.IteratorFactory;
 import org.scannotation.archiveiterator.StreamIterator;
+import org.scannotation.archiveiterator.ZipFileIterator;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The class allows you to scan an arbitrary set of "archives" for .class files.  These class files
@@ -40,15 +53,67 @@ import java.util.Set;
  */
 public class AnnotationDB implements Serializable
 {
-   protected Map<String, Set<String>> annotationIndex = new HashMap<String, Set<String>>();
-   protected Map<String, Set<String>> implementsIndex = new HashMap<String, Set<String>>();
-   protected Map<String, Set<String>> classIndex = new HashMap<String, Set<String>>();
+   /**
+    * numbers the names in all three indexes, so each name is kept once
+    */
+   private final NameTable names = new NameTable();
+   protected Map<String, Set<String>> annotationIndex = new CompactIndex(names);
+   protected Map<String, Set<String>> implementsIndex = new CompactIndex(names);
+   protected Map<String, Set<String>> classIndex = new CompactIndex(names);
 
    protected transient boolean scanClassAnnotations = true;
    protected transient boolean scanMethodAnnotations = true;
    protected transient boolean scanParameterAnnotations = true;
    protected transient boolean scanFieldAnnotations = true;
    protected transient String[] ignoredPackages = {"javax", "java", "sun", "com.sun", "javassist"};
+   protected transient String[] includedPackages;
+   private transient PackageMatcher packageMatcher;
+   protected transient int scanThreads = 1;
+   protected transient boolean useClassFileReader = true;
+   protected transient ArchiveIndexCache indexCache;
+   protected transient String[] wantedAnnotations;
+   private transient byte[][] wantedDescriptors;
+
+   /**
+    * The number of class files parsed by one task of a parallel scan
+    */
+   private static final int CLASSES_PER_TASK = 64;
+
+   /**
+    * The methods that scan a javassist ClassFile, which the lightweight class file reader does not call
+    */
+   private static final Object[][] CLASS_FILE_HOOKS = {
+      {"scanClassFile", new Class<?>[]{InputStream.class}},
+      {"scanClass", new Class<?>[]{ClassFile.class}},
+      {"scanMethods", new Class<?>[]{ClassFile.class}},
+      {"scanFields", new Class<?>[]{ClassFile.class}},
+      {"populate", new Class<?>[]{Annotation[].class, String.class}}};
+
+   /**
+    * Whether a subclass of AnnotationDB overrides one of the CLASS_FILE_HOOKS, and so needs ClassFiles parsed
+    */
+   private static final ClassValue<Boolean> OVERRIDES_HOOKS = new ClassValue<Boolean>()
+   {
+      protected Boolean computeValue(Class<?> type)
+      {
+         for (Class<?> c = type; c != AnnotationDB.class; c = c.getSuperclass())
+         {
+            for (Object[] hook : CLASS_FILE_HOOKS)
+            {
+               try
+               {
+                  c.getDeclaredMethod((String) hook[0], (Class<?>[]) hook[1]);
+                  return Boolean.TRUE;
+               }
+               catch (NoSuchMethodException e)
+               {
+                  // not overridden here
+               }
+            }
+         }
+         return Boolean.FALSE;
+      }
+   };
 
    public class CrossReferenceException extends Exception
    {
@@ -78,6 +143,7 @@ public class AnnotationDB implements Serializable
    public void setIgnoredPackages(String[] ignoredPackages)
    {
       this.ignoredPackages = ignoredPackages;
+      packageMatcher = null;
    }
 
    public void addIgnoredPackages(String... ignored)
@@ -86,6 +152,39 @@ public class AnnotationDB implements Serializable
       int i = 0;
       for (String ign : ignoredPackages) tmp[i++] = ign;
       for (String ign : ignored) tmp[i++] = ign;
+      setIgnoredPackages(tmp);
+   }
+
+   public String[] getIncludedPackages()
+   {
+      return includedPackages;
+   }
+
+   /**
+    * Scan only the classes in the given packages (and their subpackages), except those in the ignored packages.  An
+    * ignored package inside an included one is still ignored, and an included package inside an ignored one is
+    * still scanned: the innermost package decides.
+    *
+    * @param includedPackages the packages to scan, or none to scan every package that is not ignored
+    */
+   public void setIncludedPackages(String... includedPackages)
+   {
+      this.includedPackages = includedPackages == null || includedPackages.length == 0 ? null : includedPackages;
+      packageMatcher = null;
+   }
+
+   /**
+    * The included and ignored packages, compiled on first use after they change
+    */
+   private PackageMatcher packageMatcher()
+   {
+      PackageMatcher matcher = packageMatcher;
+      if (matcher == null)
+      {
+         matcher = new PackageMatcher(includedPackages, ignoredPackages);
+         packageMatcher = matcher;
+      }
+      return matcher;
    }
 
    /**
@@ -190,18 +289,7 @@ public class AnnotationDB implements Serializable
 
    private boolean ignoreScan(String intf)
    {
-      for (String ignored : ignoredPackages)
-      {
-         if (intf.startsWith(ignored + "."))
-         {
-            return true;
-         }
-         else
-         {
-            //System.out.println("NOT IGNORING: " + intf);
-         }
-      }
-      return false;
+      return !packageMatcher().accepts(intf);
    }
 
    /**
@@ -264,6 +352,116 @@ public class AnnotationDB implements Serializable
    }
 
 
+   /**
+    * Whether or not you want AnnotationDB to read class files with its own lightweight reader, rather than parse
+    * them into javassist ClassFiles.  The results are the same.  The reader is never used by a subclass that
+    * overrides scanClassFile(), scanClass(ClassFile), scanMethods(), scanFields() or populate(Annotation[], String),
+    * so that its methods are still called.
+    *
+    * @param useClassFileReader false to always parse ClassFiles
+    */
+   public void setUseClassFileReader(boolean useClassFileReader)
+   {
+      this.useClassFileReader = useClassFileReader;
+   }
+
+   /**
+    * Only index the classes that may use one of the given annotations.  Before anything else is read, the constant
+    * pool of every class is searched for the type descriptors of the annotations, and the classes that do not
+    * mention any of them are left out of all indexes.  The classes that do are indexed in full, so the annotation
+    * index has the same entries for the given annotations as if everything had been scanned.
+    * <p/>
+    * This needs the lightweight class file reader: when it is not used (see setUseClassFileReader()) every class is
+    * indexed.
+    *
+    * @param annotations the fully qualified names of the annotations, or null (the default) to index every class
+    */
+   public void setWantedAnnotations(String... annotations)
+   {
+      this.wantedAnnotations = annotations;
+      if (annotations == null)
+      {
+         wantedDescriptors = null;
+         return;
+      }
+      wantedDescriptors = new byte[annotations.length][];
+      for (int i = 0; i < annotations.length; i++)
+      {
+         wantedDescriptors[i] = modifiedUtf8("L" + annotations[i].replace('.', '/') + ";");
+      }
+   }
+
+   /**
+    * Encode the given string as it appears in the constant pool
+    */
+   private static byte[] modifiedUtf8(String s)
+   {
+      try
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         new DataOutputStream(bytes).writeUTF(s);
+         byte[] utf = bytes.toByteArray();
+         byte[] result = new byte[utf.length - 2];
+         System.arraycopy(utf, 2, result, 0, result.length);
+         return result;
+      }
+      catch (IOException e)
+      {
+         throw new IllegalArgumentException(e);
+      }
+   }
+
+   /**
+    * Keep the indexes of every archive scanned in the given cache, and load the indexes of the archives that have
+    * not changed since they were cached instead of scanning them again.
+    *
+    * @param indexCache the cache, or null (the default) to always scan everything
+    */
+   public void setIndexCache(ArchiveIndexCache indexCache)
+   {
+      this.indexCache = indexCache;
+   }
+
+   /**
+    * Describes the settings that decide what a scan puts in the indexes, to tell apart the cache entries of
+    * differently configured scans
+    */
+   protected String scanSettings()
+   {
+      StringBuilder settings = new StringBuilder();
+      settings.append(scanClassAnnotations ? 'c' : '-');
+      settings.append(scanMethodAnnotations ? 'm' : '-');
+      settings.append(scanParameterAnnotations ? 'p' : '-');
+      settings.append(scanFieldAnnotations ? 'f' : '-');
+      for (String ignored : ignoredPackages) settings.append(' ').append(ignored);
+      if (includedPackages != null)
+      {
+         settings.append(" +");
+         for (String included : includedPackages) settings.append(' ').append(included);
+      }
+      if (wantedAnnotations != null)
+      {
+         String[] wanted = wantedAnnotations.clone();
+         Arrays.sort(wanted);
+         settings.append(" @");
+         for (String annotation : wanted) settings.append(' ').append(annotation);
+      }
+      return settings.toString();
+   }
+
+   /**
+    * How many threads scanArchives() may use.  With more than one thread the archives are scanned at the same
+    * time, and the class files of each archive are parsed in batches on a fork-join pool.  The indexes come out
+    * the same as with a serial scan.
+    *
+    * @param scanThreads the number of threads, 1 (the default) for a serial scan
+    */
+   public void setScanThreads(int scanThreads)
+   {
+      if (scanThreads < 1) throw new IllegalArgumentException("scanThreads must be positive: " + scanThreads);
+      this.scanThreads = scanThreads;
+   }
+
    /**
     * Scan a url that represents an "archive"  this is a classpath directory or jar file
     *
@@ -272,28 +470,342 @@ public class AnnotationDB implements Serializable
     */
    public void scanArchives(URL... urls) throws IOException
    {
+      if (scanThreads > 1 && urls.length > 0)
+      {
+         scanArchivesInParallel(urls);
+         return;
+      }
       for (URL url : urls)
       {
-         Filter filter = new Filter()
+         ArchiveIndexCache.Key key = indexCache == null ? null : indexCache.key(url, scanSettings());
+         if (key == null)
          {
-            public boolean accepts(String filename)
+            scanArchive(url);
+            continue;
+         }
+         AnnotationDB archive = createBatchDB();
+         if (!indexCache.load(key, archive))
+         {
+            try
             {
-               if (filename.endsWith(".class"))
+               archive.scanArchive(url);
+            }
+            catch (IOException e)
+            {
+               merge(archive);
+               throw e;
+            }
+            indexCache.store(key, archive);
+         }
+         merge(archive);
+      }
+
+   }
+
+   /**
+    * Scan every class file of one archive
+    */
+   private void scanArchive(URL url) throws IOException
+   {
+      StreamIterator it = IteratorFactory.create(url, classFilter());
+
+      InputStream stream;
+      while ((stream = it.next()) != null) scanClass(stream);
+   }
+
+   /**
+    * Accepts the .class files in the packages to scan
+    */
+   private Filter classFilter()
+   {
+      final PackageMatcher matcher = packageMatcher();
+      return new Filter()
+      {
+         public boolean accepts(String filename)
+         {
+            if (filename.endsWith(".class"))
+            {
+               int start = filename.startsWith("/") ? 1 : 0;
+               if (matcher.accepts(filename, start, filename.length())) return true;
+               //System.out.println("IGNORED: " + filename);
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Scan the archives on a fork-join pool.  Every batch of class files is scanned into its own AnnotationDB, and
+    * the batches are merged into this one in the order of the urls and of the entries, so a class found in
+    * several archives ends up indexed just as the serial scan would index it.  (The subdirectories of a directory
+    * are walked at the same time, so its files come in no particular order: only two class files of the same class
+    * in one directory could tell.)  If an archive cannot be read, the
+    * archives and entries before it are merged and its IOException is thrown, as in the serial scan.  Archives
+    * found in the index cache are loaded rather than scanned.
+    *
+    * @param urls the archives to scan
+    * @throws IOException
+    */
+   protected void scanArchivesInParallel(URL... urls) throws IOException
+   {
+      ForkJoinPool pool = new ForkJoinPool(scanThreads);
+      ExecutorService walkers = Executors.newFixedThreadPool(scanThreads);
+      try
+      {
+         List<ArchiveScan> archives = new ArrayList<ArchiveScan>();
+         for (URL url : urls)
+         {
+            ArchiveScan archive = new ArchiveScan(url, walkers);
+            archives.add(archive);
+            pool.execute(archive);
+         }
+         for (ArchiveScan archive : archives)
+         {
+            try
+            {
+               archive.get();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new IOException("interrupted while scanning " + archive.url);
+            }
+            catch (ExecutionException e)
+            {
+               Throwable cause = e.getCause();
+               if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+               if (cause instanceof Error) throw (Error) cause;
+               throw new RuntimeException(cause);
+            }
+            if (archive.whole != null)
+            {
+               merge(archive.whole);
+               continue;
+            }
+            for (BatchScan batch : archive.batches)
+            {
+               merge(batch.db);
+               if (batch.failure != null) throw batch.failure;
+            }
+            if (archive.failure != null) throw archive.failure;
+         }
+      }
+      finally
+      {
+         pool.shutdownNow();
+         walkers.shutdownNow();
+      }
+   }
+
+   /**
+    * Creates an empty AnnotationDB that scans with the same settings as this one
+    */
+   protected AnnotationDB createBatchDB()
+   {
+      AnnotationDB db = new AnnotationDB();
+      db.scanClassAnnotations = scanClassAnnotations;
+      db.scanMethodAnnotations = scanMethodAnnotations;
+      db.scanParameterAnnotations = scanParameterAnnotations;
+      db.scanFieldAnnotations = scanFieldAnnotations;
+      db.ignoredPackages = ignoredPackages;
+      db.includedPackages = includedPackages;
+      db.packageMatcher = packageMatcher();
+      db.useClassFileReader = useClassFileReader;
+      db.wantedAnnotations = wantedAnnotations;
+      db.wantedDescriptors = wantedDescriptors;
+      return db;
+   }
+
+   /**
+    * Add the indexes of the given AnnotationDB, scanned after everything in this one, to the indexes of this one
+    *
+    * @param db the AnnotationDB to merge
+    */
+   protected void merge(AnnotationDB db)
+   {
+      classIndex.putAll(db.classIndex);
+      implementsIndex.putAll(db.implementsIndex);
+      for (Map.Entry<String, Set<String>> entry : db.annotationIndex.entrySet())
+      {
+         Set<String> classes = annotationIndex.get(entry.getKey());
+         if (classes == null) annotationIndex.put(entry.getKey(), entry.getValue());
+         else classes.addAll(entry.getValue());
+      }
+   }
+
+   /**
+    * Loads one archive from the index cache, or reads its class files and forks a BatchScan for every
+    * CLASSES_PER_TASK of them
+    */
+   private class ArchiveScan extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final URL url;
+      private final Executor walkers;
+      private final List<BatchScan> batches = new ArrayList<BatchScan>();
+      private IOException failure;
+
+      /**
+       * the indexes of the whole archive, when it is cached
+       */
+      private AnnotationDB whole;
+
+      ArchiveScan(URL url, Executor walkers)
+      {
+         this.url = url;
+         this.walkers = walkers;
+      }
+
+      protected void compute()
+      {
+         ArchiveIndexCache.Key key = indexCache == null ? null : indexCache.key(url, scanSettings());
+         if (key != null)
+         {
+            AnnotationDB db = createBatchDB();
+            if (indexCache.load(key, db))
+            {
+               whole = db;
+               return;
+            }
+         }
+         scan();
+         if (key != null && failure == null)
+         {
+            AnnotationDB db = createBatchDB();
+            for (BatchScan batch : batches)
+            {
+               if (batch.failure != null) return;
+               db.merge(batch.db);
+            }
+            indexCache.store(key, db);
+            whole = db;
+         }
+      }
+
+      private void scan()
+      {
+         StreamIterator it = null;
+         try
+         {
+            File dir = url.toString().endsWith("/") ? IteratorFactory.toFile(url) : null;
+            if (dir != null && dir.isDirectory())
+            {
+               // walk the subdirectories at the same time
+               it = new FileIterator(dir, classFilter(), walkers);
+            }
+            else it = IteratorFactory.create(url, classFilter());
+            if (it instanceof ZipFileIterator)
+            {
+               // the batches inflate their own entries, at the same time
+               ZipFileIterator zip = (ZipFileIterator) it;
+               for (int from = 0; from < zip.size(); from += CLASSES_PER_TASK)
                {
-                  if (filename.startsWith("/")) filename = filename.substring(1);
-                  if (!ignoreScan(filename.replace('/', '.'))) return true;
-                  //System.out.println("IGNORED: " + filename);
+                  fork(new BatchScan(zip, from, Math.min(from + CLASSES_PER_TASK, zip.size())));
                }
-               return false;
+               for (BatchScan batch : batches) batch.join();
+               return;
             }
-         };
+            List<byte[]> classes = new ArrayList<byte[]>(CLASSES_PER_TASK);
+            InputStream stream;
+            while ((stream = it.next()) != null)
+            {
+               classes.add(readFully(stream));
+               if (classes.size() == CLASSES_PER_TASK)
+               {
+                  fork(new BatchScan(classes));
+                  classes = new ArrayList<byte[]>(CLASSES_PER_TASK);
+               }
+            }
+            if (!classes.isEmpty()) fork(new BatchScan(classes));
+         }
+         catch (IOException e)
+         {
+            failure = e;
+         }
+         finally
+         {
+            // a directory stops its walkers here if reading failed
+            if (it != null) it.close();
+         }
+         for (BatchScan batch : batches) batch.join();
+      }
+
+      private void fork(BatchScan batch)
+      {
+         batches.add(batch);
+         batch.fork();
+      }
+   }
+
+   /**
+    * Scans a batch of class files into an AnnotationDB of its own, stopping at the first one that fails.  The class
+    * files are either already read, or entries of a jar read by the batch itself.
+    */
+   private class BatchScan extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final List<byte[]> classes;
+      private final ZipFileIterator zip;
+      private final int from;
+      private final int to;
+      private final AnnotationDB db = createBatchDB();
+      private IOException failure;
 
-         StreamIterator it = IteratorFactory.create(url, filter);
+      BatchScan(List<byte[]> classes)
+      {
+         this.classes = classes;
+         this.zip = null;
+         this.from = 0;
+         this.to = 0;
+      }
+
+      BatchScan(ZipFileIterator zip, int from, int to)
+      {
+         this.classes = null;
+         this.zip = zip;
+         this.from = from;
+         this.to = to;
+      }
 
-         InputStream stream;
-         while ((stream = it.next()) != null) scanClass(stream);
+      protected void compute()
+      {
+         try
+         {
+            if (zip == null)
+            {
+               for (byte[] bits : classes) db.scanClass(new ByteArrayInputStream(bits));
+            }
+            else
+            {
+               for (int i = from; i < to; i++) db.scanClass(zip.open(i));
+            }
+         }
+         catch (IOException e)
+         {
+            failure = e;
+         }
       }
+   }
 
+   /**
+    * Read the rest of the given stream, and close it
+    */
+   private static byte[] readFully(InputStream stream) throws IOException
+   {
+      try
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+         byte[] buffer = new byte[4096];
+         int n;
+         while ((n = stream.read(buffer)) != -1) bytes.write(buffer, 0, n);
+         return bytes.toByteArray();
+      }
+      finally
+      {
+         stream.close();
+      }
    }
 
    /**
@@ -303,6 +815,49 @@ public class AnnotationDB implements Serializable
     * @throws IOException
     */
    public void scanClass(InputStream bits) throws IOException
+   {
+      if (!useClassFileReader || OVERRIDES_HOOKS.get(getClass()))
+      {
+         scanClassFile(bits);
+         return;
+      }
+      byte[] bytes = readFully(bits);
+      ClassFileReader reader;
+      String className;
+      String[] interfaces;
+      List<String> annotations = new ArrayList<String>();
+      try
+      {
+         reader = new ClassFileReader(bytes);
+         if (wantedDescriptors != null && !reader.mentions(wantedDescriptors)) return;
+         className = reader.getClassName();
+         interfaces = reader.getInterfaces();
+         reader.readAnnotations(annotations, scanMethodAnnotations, scanParameterAnnotations, scanFieldAnnotations);
+      }
+      catch (RuntimeException e)
+      {
+         // let javassist deal with anything the reader does not understand
+         scanClassFile(new ByteArrayInputStream(bytes));
+         return;
+      }
+
+      classIndex.put(className, new HashSet<String>());
+      Set<String> classAnnotations = classIndex.get(className);
+      for (String annotation : annotations) populate(annotation, className, classAnnotations);
+
+      // create an index of interfaces the class implements
+      Set<String> intfs = new HashSet<String>();
+      for (String intf : interfaces) intfs.add(intf);
+      implementsIndex.put(className, intfs);
+   }
+
+   /**
+    * Parse a .class file for annotations into a javassist ClassFile
+    *
+    * @param bits input stream pointing to .class file bits
+    * @throws IOException
+    */
+   protected void scanClassFile(InputStream bits) throws IOException
    {
       DataInputStream dstream = new DataInputStream(new BufferedInputStream(bits));
       ClassFile cf = null;
@@ -407,15 +962,21 @@ public class AnnotationDB implements Serializable
       Set<String> classAnnotations = classIndex.get(className);
       for (Annotation ann : annotations)
       {
-         Set<String> classes = annotationIndex.get(ann.getTypeName());
-         if (classes == null)
-         {
-            classes = new HashSet<String>();
-            annotationIndex.put(ann.getTypeName(), classes);
-         }
-         classes.add(className);
-         classAnnotations.add(ann.getTypeName());
+         populate(ann.getTypeName(), className, classAnnotations);
+      }
+   }
+
+   private void populate(String annotation, String className, Set<String> classAnnotations)
+   {
+      Set<String> classes = annotationIndex.get(annotation);
+      if (classes == null)
+      {
+         // the index may keep a copy of the set it is given
+         annotationIndex.put(annotation, new HashSet<String>());
+         classes = annotationIndex.get(annotation);
       }
+      classes.add(className);
+      classAnnotations.add(annotation);
    }
 
    /**
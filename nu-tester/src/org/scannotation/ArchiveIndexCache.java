@@ -0,0 +1,360 @@
+package org.scannotation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.scannotation.archiveiterator.IteratorFactory;
+
+/**
+ * Keeps the indexes of each scanned archive in a file of its own, so that an archive that has not changed since it
+ * was last scanned does not have to be scanned again.
+ * <p/>
+ * A jar file is taken to be unchanged while its size and modification time are the same.  A directory is taken to
+ * be unchanged while the paths, sizes and modification times of the .class files under it are the same: walking the
+ * directory is much cheaper than parsing its classes.  The settings of the AnnotationDB that scanned an archive
+ * (which annotations it indexes, which packages it ignores) are part of the entry too, so changing them rescans
+ * everything.
+ * <p/>
+ * The entries are written in a compact binary form: a table of all names used, followed by the three indexes as
+ * lists of numbers into that table.  The cache never fails a scan -- an entry that cannot be read or written is
+ * simply treated as missing.
+ * <p/>
+ * The entries are trusted as they are, so the directory must not be writable by other users: it is created readable
+ * and writable by its owner only.
+ *
+ * @version $Revision: 1 $
+ */
+public class ArchiveIndexCache
+{
+   /**
+    * identifies the cache files, and the version of their format
+    */
+   private static final int MAGIC = 0x53434932;
+
+   private final File directory;
+
+   /**
+    * Keep the cache files in the given directory, which is created when needed
+    *
+    * @param directory the directory of the cache files
+    */
+   public ArchiveIndexCache(File directory)
+   {
+      this.directory = directory;
+   }
+
+   /**
+    * @return the directory of the cache files
+    */
+   public File getDirectory()
+   {
+      return directory;
+   }
+
+   /**
+    * What identifies the cache entry of an archive in its current state
+    */
+   static class Key
+   {
+      final String url;
+      final String settings;
+      final long size;
+      final long stamp;
+      final File file;
+
+      Key(String url, String settings, long size, long stamp, File file)
+      {
+         this.url = url;
+         this.settings = settings;
+         this.size = size;
+         this.stamp = stamp;
+         this.file = file;
+      }
+   }
+
+   /**
+    * Produce the key of the given archive in its current state
+    *
+    * @param url the archive
+    * @param settings the settings of the scan
+    * @return the key, or null if the archive is not a local jar file or directory
+    */
+   Key key(URL url, String settings)
+   {
+      String urlString = url.toString();
+      if (urlString.startsWith("jar:") && urlString.endsWith("!/"))
+      {
+         urlString = urlString.substring(4, urlString.length() - 2);
+      }
+      if (!urlString.startsWith("file:")) return null;
+
+      File archive;
+      try
+      {
+         archive = IteratorFactory.toFile(new URL(urlString));
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+
+      long size;
+      long stamp;
+      if (archive.isDirectory())
+      {
+         long[] fingerprint = {0, 17};
+         fingerprint(archive, "", fingerprint);
+         size = fingerprint[0];
+         stamp = fingerprint[1];
+      }
+      else if (archive.isFile())
+      {
+         size = archive.length();
+         stamp = archive.lastModified();
+      }
+      else return null;
+
+      String name = digest(urlString + '\n' + settings);
+      if (name == null) return null;
+      return new Key(urlString, settings, size, stamp, new File(directory, name + ".idx"));
+   }
+
+   /**
+    * Add the relative paths, sizes and modification times of the .class files under the given directory to the
+    * fingerprint: the number of files and a hash of their details
+    */
+   private static void fingerprint(File dir, String path, long[] fingerprint)
+   {
+      File[] files = dir.listFiles();
+      if (files == null) return;
+      for (File file : files)
+      {
+         String name = path + '/' + file.getName();
+         if (file.isDirectory())
+         {
+            fingerprint(file, name, fingerprint);
+         }
+         else if (name.endsWith(".class"))
+         {
+            long h = fingerprint[1];
+            h = 31 * h + name.hashCode();
+            h = 31 * h + file.length();
+            h = 31 * h + file.lastModified();
+            fingerprint[0]++;
+            fingerprint[1] = h;
+         }
+      }
+   }
+
+   /**
+    * Produce the hex SHA-1 digest of the given string, or null if there is no SHA-1
+    */
+   private static String digest(String s)
+   {
+      try
+      {
+         byte[] hash = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+         StringBuilder hex = new StringBuilder();
+         for (byte b : hash)
+         {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+         }
+         return hex.toString();
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         return null;
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Load the indexes of an archive into the given (empty) AnnotationDB
+    *
+    * @param key the key of the archive
+    * @param db receives the indexes
+    * @return true if the cache had a valid entry for the archive
+    */
+   boolean load(Key key, AnnotationDB db)
+   {
+      if (!key.file.isFile()) return false;
+      DataInputStream in = null;
+      try
+      {
+         in = new DataInputStream(new BufferedInputStream(new FileInputStream(key.file)));
+         if (in.readInt() != MAGIC
+                 || !in.readUTF().equals(key.url)
+                 || !in.readUTF().equals(key.settings)
+                 || in.readLong() != key.size
+                 || in.readLong() != key.stamp)
+         {
+            return false;
+         }
+         String[] names = new String[in.readInt()];
+         for (int i = 0; i < names.length; i++) names[i] = in.readUTF();
+         readIndex(in, names, db.classIndex);
+         readIndex(in, names, db.implementsIndex);
+         readIndex(in, names, db.annotationIndex);
+         return true;
+      }
+      catch (IOException e)
+      {
+         db.classIndex.clear();
+         db.implementsIndex.clear();
+         db.annotationIndex.clear();
+         return false;
+      }
+      catch (RuntimeException e)
+      {
+         db.classIndex.clear();
+         db.implementsIndex.clear();
+         db.annotationIndex.clear();
+         return false;
+      }
+      finally
+      {
+         close(in);
+      }
+   }
+
+   /**
+    * Store the indexes of an archive, replacing any earlier entry.  The entry is written to a temporary file first,
+    * so a scan running at the same time never sees half an entry.
+    *
+    * @param key the key of the archive, taken before it was scanned
+    * @param db the indexes of the archive alone
+    */
+   void store(Key key, AnnotationDB db)
+   {
+      DataOutputStream out = null;
+      File tmp = null;
+      try
+      {
+         if (!directory.isDirectory() && !makePrivateDirectory(directory)) return;
+         tmp = File.createTempFile("scan", ".tmp", directory);
+         out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+         out.writeInt(MAGIC);
+         out.writeUTF(key.url);
+         out.writeUTF(key.settings);
+         out.writeLong(key.size);
+         out.writeLong(key.stamp);
+
+         Map<String, Integer> ids = new HashMap<String, Integer>();
+         List<String> names = new ArrayList<String>();
+         number(db.classIndex, ids, names);
+         number(db.implementsIndex, ids, names);
+         number(db.annotationIndex, ids, names);
+         out.writeInt(names.size());
+         for (String name : names) out.writeUTF(name);
+         writeIndex(out, ids, db.classIndex);
+         writeIndex(out, ids, db.implementsIndex);
+         writeIndex(out, ids, db.annotationIndex);
+         out.close();
+         out = null;
+         Files.move(tmp.toPath(), key.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         tmp = null;
+      }
+      catch (IOException e)
+      {
+         // leave the archive out of the cache
+      }
+      finally
+      {
+         close(out);
+         if (tmp != null) tmp.delete();
+      }
+   }
+
+   /**
+    * Create the given directory and its missing parents, and make it accessible to its owner only
+    *
+    * @return true if the directory was created
+    */
+   private static boolean makePrivateDirectory(File dir)
+   {
+      if (!dir.mkdirs()) return false;
+      dir.setReadable(false, false);
+      dir.setWritable(false, false);
+      dir.setExecutable(false, false);
+      return dir.setReadable(true, true) && dir.setWritable(true, true) && dir.setExecutable(true, true);
+   }
+
+   /**
+    * Give a number to every name in the given index that does not have one yet
+    */
+   private static void number(Map<String, Set<String>> index, Map<String, Integer> ids, List<String> names)
+   {
+      for (Map.Entry<String, Set<String>> entry : index.entrySet())
+      {
+         number(entry.getKey(), ids, names);
+         for (String name : entry.getValue()) number(name, ids, names);
+      }
+   }
+
+   private static void number(String name, Map<String, Integer> ids, List<String> names)
+   {
+      if (!ids.containsKey(name))
+      {
+         ids.put(name, names.size());
+         names.add(name);
+      }
+   }
+
+   private static void writeIndex(DataOutputStream out, Map<String, Integer> ids, Map<String, Set<String>> index)
+           throws IOException
+   {
+      out.writeInt(index.size());
+      for (Map.Entry<String, Set<String>> entry : index.entrySet())
+      {
+         out.writeInt(ids.get(entry.getKey()));
+         out.writeInt(entry.getValue().size());
+         for (String name : entry.getValue()) out.writeInt(ids.get(name));
+      }
+   }
+
+   private static void readIndex(DataInputStream in, String[] names, Map<String, Set<String>> index)
+           throws IOException
+   {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++)
+      {
+         String key = names[in.readInt()];
+         int size = in.readInt();
+         Set<String> values = new HashSet<String>();
+         for (int j = 0; j < size; j++) values.add(names[in.readInt()]);
+         index.put(key, values);
+      }
+   }
+
+   private static void close(java.io.Closeable c)
+   {
+      if (c == null) return;
+      try
+      {
+         c.close();
+      }
+      catch (IOException ignored)
+      {
+      }
+   }
+}
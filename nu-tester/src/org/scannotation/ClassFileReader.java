@@ -0,0 +1,329 @@
+package org.scannotation;
+
+import javassist.bytecode.Descriptor;
+
+import java.util.List;
+
+/**
+ * Reads just enough of a .class file to index it: the name of the class, the interfaces it implements, and the
+ * types of the annotations on the class, its methods, their parameters and its fields.
+ * <p/>
+ * Unlike javassist.bytecode.ClassFile nothing is built for the constant pool, the members or the attributes.  The
+ * reader remembers where each constant pool entry starts, skips the members' bytecode, and only decodes the few
+ * strings it returns.  Attribute names are compared with the raw bytes of the constant pool.
+ * <p/>
+ * A class file the reader does not understand makes it throw an IllegalArgumentException (or run past the end of
+ * the bytes), so that the caller can fall back to ClassFile.
+ *
+ * @version $Revision: 1 $
+ */
+class ClassFileReader
+{
+   private static final int MAGIC = 0xCAFEBABE;
+
+   private static final byte[] VISIBLE = ascii("RuntimeVisibleAnnotations");
+   private static final byte[] INVISIBLE = ascii("RuntimeInvisibleAnnotations");
+   private static final byte[] PARAMS_VISIBLE = ascii("RuntimeVisibleParameterAnnotations");
+   private static final byte[] PARAMS_INVISIBLE = ascii("RuntimeInvisibleParameterAnnotations");
+
+   private final byte[] bytes;
+
+   /**
+    * where each constant pool entry starts: the offset of its tag byte
+    */
+   private final int[] offsets;
+
+   /**
+    * the offset of the access flags, just past the constant pool
+    */
+   private final int header;
+
+   /**
+    * Index the constant pool of the given class file
+    *
+    * @param bytes the contents of a .class file
+    * @throws IllegalArgumentException if this is not a class file, or it has constants the reader does not know
+    */
+   ClassFileReader(byte[] bytes)
+   {
+      this.bytes = bytes;
+      if (readInt(0) != MAGIC) throw new IllegalArgumentException("not a class file");
+      int count = readUnsignedShort(8);
+      offsets = new int[count];
+      int pos = 10;
+      for (int i = 1; i < count; i++)
+      {
+         offsets[i] = pos;
+         int tag = bytes[pos] & 0xFF;
+         switch (tag)
+         {
+            case 1: // Utf8
+               pos += 3 + readUnsignedShort(pos + 1);
+               break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+               pos += 5;
+               break;
+            case 5: // Long
+            case 6: // Double
+               pos += 9;
+               i++;
+               break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+               pos += 3;
+               break;
+            case 15: // MethodHandle
+               pos += 4;
+               break;
+            default:
+               throw new IllegalArgumentException("unknown constant pool tag " + tag);
+         }
+      }
+      header = pos;
+   }
+
+   /**
+    * Does the constant pool hold any of the given strings?  Every annotation of a class has its type descriptor in
+    * the constant pool, so a class whose constant pool holds none of the descriptors of some annotations cannot be
+    * annotated with them.
+    *
+    * @param strings the strings to look for, in modified UTF-8
+    * @return true if there is a Utf8 constant equal to one of the strings
+    */
+   boolean mentions(byte[][] strings)
+   {
+      for (int i = 1; i < offsets.length; i++)
+      {
+         int pos = offsets[i];
+         if (pos == 0 || bytes[pos] != 1) continue;
+         for (byte[] s : strings)
+         {
+            if (isUtf8(i, s)) return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return the name of the class, with dots
+    */
+   String getClassName()
+   {
+      return className(readUnsignedShort(header + 2));
+   }
+
+   /**
+    * @return the names of the interfaces the class implements, with dots
+    */
+   String[] getInterfaces()
+   {
+      int count = readUnsignedShort(header + 6);
+      String[] interfaces = new String[count];
+      for (int i = 0; i < count; i++) interfaces[i] = className(readUnsignedShort(header + 8 + 2 * i));
+      return interfaces;
+   }
+
+   /**
+    * Add the type names of the annotations in the class file to the given list, in the order they appear.  The
+    * annotations of the class itself are always read.
+    *
+    * @param annotations receives the annotation type names
+    * @param methods read the annotations of the methods?
+    * @param parameters read the annotations of the method parameters?
+    * @param fields read the annotations of the fields?
+    */
+   void readAnnotations(List<String> annotations, boolean methods, boolean parameters, boolean fields)
+   {
+      int pos = header + 8 + 2 * readUnsignedShort(header + 6);
+      pos = readMembers(pos, annotations, fields, false);
+      pos = readMembers(pos, annotations, methods, parameters);
+      readAttributes(pos, annotations, true, false);
+   }
+
+   /**
+    * Read the fields or the methods starting at the given offset
+    *
+    * @return the offset just past them
+    */
+   private int readMembers(int pos, List<String> annotations, boolean own, boolean parameters)
+   {
+      int count = readUnsignedShort(pos);
+      pos += 2;
+      for (int i = 0; i < count; i++) pos = readAttributes(pos + 6, annotations, own, parameters);
+      return pos;
+   }
+
+   /**
+    * Read the attributes starting at the given offset (at their count), skipping all but the annotations wanted
+    *
+    * @return the offset just past them
+    */
+   private int readAttributes(int pos, List<String> annotations, boolean own, boolean parameters)
+   {
+      int count = readUnsignedShort(pos);
+      pos += 2;
+      for (int i = 0; i < count; i++)
+      {
+         int name = readUnsignedShort(pos);
+         int length = readInt(pos + 2);
+         int start = pos + 6;
+         if (own && (isUtf8(name, VISIBLE) || isUtf8(name, INVISIBLE)))
+         {
+            readAnnotations(start, annotations);
+         }
+         else if (parameters && (isUtf8(name, PARAMS_VISIBLE) || isUtf8(name, PARAMS_INVISIBLE)))
+         {
+            int params = bytes[start] & 0xFF;
+            int p = start + 1;
+            for (int j = 0; j < params; j++) p = readAnnotations(p, annotations);
+         }
+         pos = start + length;
+      }
+      return pos;
+   }
+
+   /**
+    * Read a count of annotations followed by the annotations
+    *
+    * @return the offset just past them
+    */
+   private int readAnnotations(int pos, List<String> annotations)
+   {
+      int count = readUnsignedShort(pos);
+      pos += 2;
+      for (int i = 0; i < count; i++) pos = readAnnotation(pos, annotations);
+      return pos;
+   }
+
+   /**
+    * Read one annotation, adding its type name to the list
+    *
+    * @return the offset just past it
+    */
+   private int readAnnotation(int pos, List<String> annotations)
+   {
+      if (annotations != null) annotations.add(Descriptor.toClassName(utf8(readUnsignedShort(pos))));
+      int pairs = readUnsignedShort(pos + 2);
+      pos += 4;
+      for (int i = 0; i < pairs; i++) pos = skipElementValue(pos + 2);
+      return pos;
+   }
+
+   /**
+    * Skip the element value at the given offset.  Nested annotations are not indexed.
+    *
+    * @return the offset just past it
+    */
+   private int skipElementValue(int pos)
+   {
+      int tag = bytes[pos] & 0xFF;
+      switch (tag)
+      {
+         case 'B':
+         case 'C':
+         case 'D':
+         case 'F':
+         case 'I':
+         case 'J':
+         case 'S':
+         case 'Z':
+         case 's':
+         case 'c':
+            return pos + 3;
+         case 'e':
+            return pos + 5;
+         case '@':
+            return readAnnotation(pos + 1, null);
+         case '[':
+            int count = readUnsignedShort(pos + 1);
+            pos += 3;
+            for (int i = 0; i < count; i++) pos = skipElementValue(pos);
+            return pos;
+         default:
+            throw new IllegalArgumentException("unknown element value tag " + (char) tag);
+      }
+   }
+
+   /**
+    * @return the name of the class at the given index of the constant pool, with dots
+    */
+   private String className(int index)
+   {
+      return utf8(readUnsignedShort(offsets[index] + 1)).replace('/', '.');
+   }
+
+   /**
+    * Does the Utf8 constant at the given index hold the given string (in modified UTF-8)?
+    */
+   private boolean isUtf8(int index, byte[] utf8)
+   {
+      int pos = offsets[index];
+      if (readUnsignedShort(pos + 1) != utf8.length) return false;
+      pos += 3;
+      for (int i = 0; i < utf8.length; i++)
+      {
+         if (bytes[pos + i] != utf8[i]) return false;
+      }
+      return true;
+   }
+
+   /**
+    * Decode the (modified UTF-8) Utf8 constant at the given index
+    */
+   private String utf8(int index)
+   {
+      int pos = offsets[index];
+      if (bytes[pos] != 1) throw new IllegalArgumentException("not a Utf8 constant: " + index);
+      int length = readUnsignedShort(pos + 1);
+      pos += 3;
+      int end = pos + length;
+      char[] chars = new char[length];
+      int n = 0;
+      while (pos < end)
+      {
+         int b = bytes[pos++] & 0xFF;
+         if (b < 0x80)
+         {
+            chars[n++] = (char) b;
+         }
+         else if ((b & 0xE0) == 0xC0)
+         {
+            chars[n++] = (char) (((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+         }
+         else
+         {
+            chars[n++] = (char) (((b & 0x0F) << 12) | ((bytes[pos] & 0x3F) << 6) | (bytes[pos + 1] & 0x3F));
+            pos += 2;
+         }
+      }
+      return new String(chars, 0, n);
+   }
+
+   private int readUnsignedShort(int pos)
+   {
+      return ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+   }
+
+   private int readInt(int pos)
+   {
+      return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8)
+              | (bytes[pos + 3] & 0xFF);
+   }
+
+   private static byte[] ascii(String s)
+   {
+      byte[] b = new byte[s.length()];
+      for (int i = 0; i < b.length; i++) b[i] = (byte) s.charAt(i);
+      return b;
+   }
+}
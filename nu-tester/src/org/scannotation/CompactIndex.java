@@ -0,0 +1,285 @@
+package org.scannotation;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An index from names to sets of names, such as from annotations to the classes that use them, kept compactly.
+ * Every name is numbered by a NameTable that the indexes of an AnnotationDB share, and each set is a sorted array of
+ * those numbers, so a name in a set costs four bytes instead of a HashMap node and its own reference to the name.
+ * <p/>
+ * The index is a Map of Sets like any other and can be changed through the Map, its sets and their iterators.  The
+ * one difference is that put() copies the set it is given: to change the set of a key afterwards, get() it back from
+ * the index.  The keys are iterated in the order their names were first seen, and the names of each set in the order
+ * they were first seen by the NameTable.
+ *
+ * @version $Revision: 1 $
+ */
+public class CompactIndex extends AbstractMap<String, Set<String>> implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final int[] NO_IDS = new int[0];
+
+   private final NameTable table;
+
+   /**
+    * the set of each key, by the number of its name: null for names that are not keys
+    */
+   private IdSet[] sets = new IdSet[0];
+   private int size = 0;
+
+   public CompactIndex()
+   {
+      this(new NameTable());
+   }
+
+   /**
+    * Number the names with the given table, which other indexes may share
+    */
+   CompactIndex(NameTable table)
+   {
+      this.table = table;
+   }
+
+   @Override
+   public int size()
+   {
+      return size;
+   }
+
+   @Override
+   public boolean containsKey(Object key)
+   {
+      return get(key) != null;
+   }
+
+   @Override
+   public Set<String> get(Object key)
+   {
+      if (!(key instanceof String)) return null;
+      int id = table.find((String) key);
+      return id < 0 || id >= sets.length ? null : sets[id];
+   }
+
+   /**
+    * Make the given key map to a copy of the given set
+    *
+    * @return the set the key mapped to before, or null
+    */
+   @Override
+   public Set<String> put(String key, Set<String> value)
+   {
+      int id = table.intern(key);
+      if (id >= sets.length) sets = Arrays.copyOf(sets, Math.max(id + 1, Math.max(16, sets.length * 2)));
+      IdSet set = new IdSet(table);
+      set.addAll(value);
+      IdSet old = sets[id];
+      sets[id] = set;
+      if (old == null) size++;
+      return old;
+   }
+
+   @Override
+   public Set<String> remove(Object key)
+   {
+      if (!(key instanceof String)) return null;
+      int id = table.find((String) key);
+      if (id < 0 || id >= sets.length || sets[id] == null) return null;
+      IdSet old = sets[id];
+      sets[id] = null;
+      size--;
+      return old;
+   }
+
+   @Override
+   public void clear()
+   {
+      Arrays.fill(sets, null);
+      size = 0;
+   }
+
+   @Override
+   public Set<Map.Entry<String, Set<String>>> entrySet()
+   {
+      return new AbstractSet<Map.Entry<String, Set<String>>>()
+      {
+         public int size()
+         {
+            return size;
+         }
+
+         public Iterator<Map.Entry<String, Set<String>>> iterator()
+         {
+            return new Iterator<Map.Entry<String, Set<String>>>()
+            {
+               private int next = skip(0);
+               private int last = -1;
+
+               private int skip(int id)
+               {
+                  while (id < sets.length && sets[id] == null) id++;
+                  return id;
+               }
+
+               public boolean hasNext()
+               {
+                  return next < sets.length;
+               }
+
+               public Map.Entry<String, Set<String>> next()
+               {
+                  if (next >= sets.length) throw new NoSuchElementException();
+                  last = next;
+                  next = skip(next + 1);
+                  return new SimpleImmutableEntry<String, Set<String>>(table.name(last), sets[last]);
+               }
+
+               public void remove()
+               {
+                  if (last < 0 || sets[last] == null) throw new IllegalStateException();
+                  sets[last] = null;
+                  size--;
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * A set of names kept as their numbers, in ascending order
+    */
+   static class IdSet extends AbstractSet<String> implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final NameTable table;
+      private int[] ids = NO_IDS;
+      private int size = 0;
+
+      IdSet(NameTable table)
+      {
+         this.table = table;
+      }
+
+      @Override
+      public int size()
+      {
+         return size;
+      }
+
+      @Override
+      public boolean contains(Object o)
+      {
+         if (!(o instanceof String)) return false;
+         int id = table.find((String) o);
+         return id >= 0 && Arrays.binarySearch(ids, 0, size, id) >= 0;
+      }
+
+      @Override
+      public boolean add(String name)
+      {
+         int id = table.intern(name);
+         int i = Arrays.binarySearch(ids, 0, size, id);
+         if (i >= 0) return false;
+         i = -i - 1;
+         if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+         System.arraycopy(ids, i, ids, i + 1, size - i);
+         ids[i] = id;
+         size++;
+         return true;
+      }
+
+      /**
+       * Merges the numbers of a set sharing the same table in one pass, and adds the names of anything else one at a
+       * time
+       */
+      @Override
+      public boolean addAll(Collection<? extends String> c)
+      {
+         if (!(c instanceof IdSet) || ((IdSet) c).table != table) return super.addAll(c);
+         IdSet other = (IdSet) c;
+         if (other.size == 0) return false;
+         int[] merged = new int[size + other.size];
+         int i = 0, j = 0, n = 0;
+         while (i < size && j < other.size)
+         {
+            int a = ids[i], b = other.ids[j];
+            if (a < b) merged[n++] = ids[i++];
+            else if (a > b) merged[n++] = other.ids[j++];
+            else
+            {
+               merged[n++] = a;
+               i++;
+               j++;
+            }
+         }
+         while (i < size) merged[n++] = ids[i++];
+         while (j < other.size) merged[n++] = other.ids[j++];
+         if (n == size) return false;
+         ids = n == merged.length ? merged : Arrays.copyOf(merged, n);
+         size = n;
+         return true;
+      }
+
+      @Override
+      public boolean remove(Object o)
+      {
+         if (!(o instanceof String)) return false;
+         int id = table.find((String) o);
+         int i = id < 0 ? -1 : Arrays.binarySearch(ids, 0, size, id);
+         if (i < 0) return false;
+         removeAt(i);
+         return true;
+      }
+
+      @Override
+      public void clear()
+      {
+         ids = NO_IDS;
+         size = 0;
+      }
+
+      private void removeAt(int i)
+      {
+         System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+         size--;
+      }
+
+      @Override
+      public Iterator<String> iterator()
+      {
+         return new Iterator<String>()
+         {
+            private int next = 0;
+            private boolean removable = false;
+
+            public boolean hasNext()
+            {
+               return next < size;
+            }
+
+            public String next()
+            {
+               if (next >= size) throw new NoSuchElementException();
+               removable = true;
+               return table.name(ids[next++]);
+            }
+
+            public void remove()
+            {
+               if (!removable) throw new IllegalStateException();
+               removeAt(--next);
+               removable = false;
+            }
+         };
+      }
+   }
+}
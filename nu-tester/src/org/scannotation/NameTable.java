@@ -0,0 +1,95 @@
+package org.scannotation;
+
+import java.io.Serializable;
+
+/**
+ * Numbers the names used by the indexes of an AnnotationDB, so that each name is kept once however many sets it is
+ * in.  The numbers start at 0 and go up in the order the names are first seen; a name is never forgotten.
+ * <p/>
+ * The names are found by an open addressing hash table of numbers rather than a HashMap, so a name costs an array
+ * slot or two instead of a map entry and a boxed Integer.
+ *
+ * @version $Revision: 1 $
+ */
+class NameTable implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   private String[] names = new String[64];
+   private int size = 0;
+
+   /**
+    * the number of each name plus one, at its hash: 0 marks a free slot.  Never more than half full.
+    */
+   private int[] slots = new int[128];
+
+   /**
+    * @return the number of names
+    */
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * @return the name with the given number
+    */
+   String name(int id)
+   {
+      return names[id];
+   }
+
+   /**
+    * @return the number of the given name, or -1 if it has none
+    */
+   int find(String name)
+   {
+      int mask = slots.length - 1;
+      for (int i = hash(name) & mask; slots[i] != 0; i = (i + 1) & mask)
+      {
+         if (names[slots[i] - 1].equals(name)) return slots[i] - 1;
+      }
+      return -1;
+   }
+
+   /**
+    * @return the number of the given name, giving it the next number if it has none
+    */
+   int intern(String name)
+   {
+      int mask = slots.length - 1;
+      int i = hash(name) & mask;
+      for (; slots[i] != 0; i = (i + 1) & mask)
+      {
+         if (names[slots[i] - 1].equals(name)) return slots[i] - 1;
+      }
+      if (size == names.length)
+      {
+         String[] tmp = new String[size * 2];
+         System.arraycopy(names, 0, tmp, 0, size);
+         names = tmp;
+      }
+      names[size] = name;
+      slots[i] = ++size;
+      if (size * 2 > slots.length) rehash();
+      return size - 1;
+   }
+
+   private void rehash()
+   {
+      slots = new int[slots.length * 2];
+      int mask = slots.length - 1;
+      for (int id = 0; id < size; id++)
+      {
+         int i = hash(names[id]) & mask;
+         while (slots[i] != 0) i = (i + 1) & mask;
+         slots[i] = id + 1;
+      }
+   }
+
+   private static int hash(String name)
+   {
+      int h = name.hashCode();
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,121 @@
+package org.scannotation;
+
+import java.util.Arrays;
+
+/**
+ * Decides which classes to scan from lists of packages to include and to exclude, compiled into a trie of the
+ * package names.  A class is in a package when its name starts with the package name followed by a separator, so
+ * "java" covers java.lang.String but neither javax.swing.JFrame nor a class named java.
+ * <p/>
+ * Both '.' and '/' are separators, so the names of classes and the paths of class files are matched alike, and
+ * matching a name allocates nothing.  When a name is in several of the packages the longest one decides: excluding
+ * com and including com.acme scans com.acme.Foo but not com.other.Bar.  Names in none of the packages are scanned
+ * unless some packages are included, in which case only the included packages are scanned.
+ *
+ * @version $Revision: 1 $
+ */
+public class PackageMatcher
+{
+   private static final byte NONE = 0;
+   private static final byte INCLUDE = 1;
+   private static final byte EXCLUDE = 2;
+
+   private final Node root = new Node();
+   private final boolean includeOnly;
+
+   /**
+    * Compile the given lists of packages
+    *
+    * @param included the packages to scan, or null or empty to scan every package not excluded
+    * @param excluded the packages not to scan, or null
+    */
+   public PackageMatcher(String[] included, String[] excluded)
+   {
+      includeOnly = included != null && included.length > 0;
+      // an exclusion of the same package as an inclusion wins
+      if (included != null) for (String name : included) add(name, INCLUDE);
+      if (excluded != null) for (String name : excluded) add(name, EXCLUDE);
+   }
+
+   private void add(String name, byte mark)
+   {
+      Node node = root;
+      for (int i = 0; i < name.length(); i++) node = node.child(separator(name.charAt(i)) ? '.' : name.charAt(i));
+      if (node.mark != EXCLUDE) node.mark = mark;
+   }
+
+   /**
+    * Should the class with the given name (or the class file with the given path) be scanned?
+    *
+    * @param name a class name, with dots, or a path, with slashes
+    */
+   public boolean accepts(String name)
+   {
+      return accepts(name, 0, name.length());
+   }
+
+   /**
+    * Should the class whose name (or path) is the given part of a string be scanned?
+    *
+    * @param name holds the class name or path
+    * @param start where the name starts
+    * @param end where the name ends
+    */
+   public boolean accepts(String name, int start, int end)
+   {
+      byte decision = NONE;
+      Node node = root;
+      for (int i = start; i < end; i++)
+      {
+         char c = name.charAt(i);
+         if (separator(c))
+         {
+            if (node.mark != NONE) decision = node.mark;
+            c = '.';
+         }
+         node = node.find(c);
+         if (node == null) break;
+      }
+      if (decision == NONE) return !includeOnly;
+      return decision == INCLUDE;
+   }
+
+   private static boolean separator(char c)
+   {
+      return c == '.' || c == '/';
+   }
+
+   /**
+    * The packages whose names start with the same characters: its children are kept sorted by character
+    */
+   private static class Node
+   {
+      private char[] keys = new char[0];
+      private Node[] children = new Node[0];
+      private byte mark = NONE;
+
+      Node find(char c)
+      {
+         int i = Arrays.binarySearch(keys, c);
+         return i < 0 ? null : children[i];
+      }
+
+      Node child(char c)
+      {
+         int i = Arrays.binarySearch(keys, c);
+         if (i >= 0) return children[i];
+         i = -i - 1;
+         char[] k = new char[keys.length + 1];
+         Node[] n = new Node[children.length + 1];
+         System.arraycopy(keys, 0, k, 0, i);
+         System.arraycopy(children, 0, n, 0, i);
+         k[i] = c;
+         n[i] = new Node();
+         System.arraycopy(keys, i, k, i + 1, keys.length - i);
+         System.arraycopy(children, i, n, i + 1, children.length - i);
+         keys = k;
+         children = n;
+         return n[i];
+      }
+   }
+}
@@ -3,66 +3,293 @@ package org.scannotation.archiveiterator;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Iterates over the files under a directory.  The directory tree is walked lazily: only the listings of the
+ * directories on the path to the current file are open, and the first file is returned as soon as it is found.
+ * The files come in the same order as a depth-first walk with File.listFiles() would give them, and the filter is
+ * given their paths relative to the directory, separated by '/' like the names of jar entries (com/foo/Foo.class).
+ * Directories that cannot be read are skipped.
+ * <p/>
+ * Given an Executor, the subdirectories are walked by tasks on the executor instead, and the files are handed over
+ * through a bounded queue as the tasks find them, in no particular order.
+ *
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @version $Revision: 1 $
  */
 public class FileIterator implements StreamIterator
 {
-   private ArrayList files;
-   private int index = 0;
+   /**
+    * How many files the walking tasks may find ahead of the reader
+    */
+   private static final int QUEUE_CAPACITY = 1024;
+
+   /**
+    * Marks the end of the files in the queue
+    */
+   private static final Path END = new File("").toPath();
+
+   private final Filter filter;
+
+   /**
+    * The directory walked, which the paths given to the filter are relative to
+    */
+   private final Path root;
+
+   /**
+    * The listings being walked, innermost on top, when walking lazily
+    */
+   private final ArrayDeque<Walk> walks = new ArrayDeque<Walk>();
+
+   /**
+    * The files found by the walking tasks, when fanning out
+    */
+   private final BlockingQueue<Path> found;
+
+   /**
+    * The number of directories still to be walked by the tasks
+    */
+   private final AtomicInteger pending = new AtomicInteger();
+
+   private volatile boolean closed = false;
+   private volatile RuntimeException failure;
 
    public FileIterator(File file, Filter filter)
    {
-      files = new ArrayList();
+      this.filter = filter;
+      this.found = null;
+      this.root = file.toPath().toAbsolutePath();
+      Walk walk = Walk.open(root);
+      if (walk == null) throw new RuntimeException(new IOException("Unable to list directory " + root));
+      walks.push(walk);
+   }
+
+   /**
+    * Walk the subdirectories at the same time, on the given executor
+    *
+    * @param file the directory
+    * @param filter accepts the files to iterate over
+    * @param executor runs the tasks that walk the directories
+    */
+   public FileIterator(File file, Filter filter, Executor executor)
+   {
+      this.filter = filter;
+      this.found = new LinkedBlockingQueue<Path>(QUEUE_CAPACITY);
+      this.root = file.toPath().toAbsolutePath();
+      pending.set(1);
+      executor.execute(new WalkTask(root, executor));
+   }
+
+   public InputStream next()
+   {
+      Path path = (found == null) ? nextWalked() : nextFound();
+      if (path == null) return null;
       try
       {
-         create(files, file, filter);
+         return new FileInputStream(path.toFile());
       }
-      catch (Exception e)
+      catch (FileNotFoundException e)
       {
          throw new RuntimeException(e);
       }
    }
 
-   protected static void create(List list, File dir, Filter filter) throws Exception
+   /**
+    * Produce the next accepted file of the lazy walk, or null
+    */
+   private Path nextWalked()
    {
-      File[] files = dir.listFiles();
-      for (int i = 0; i < files.length; i++)
+      while (!walks.isEmpty())
       {
-         if (files[i].isDirectory())
+         Walk walk = walks.peek();
+         if (!walk.entries.hasNext())
          {
-            create(list, files[i], filter);
+            walks.pop().close();
+            continue;
          }
-         else
+         Path path = walk.entries.next();
+         if (Files.isDirectory(path))
          {
-            if (filter == null || filter.accepts(files[i].getAbsolutePath()))
-            {
-               list.add(files[i]);
-            }
+            Walk sub = Walk.open(path);
+            if (sub != null) walks.push(sub);
+         }
+         else if (accepts(path))
+         {
+            return path;
          }
       }
+      return null;
    }
 
-   public InputStream next()
+   /**
+    * Produce the next file found by the walking tasks, or null
+    */
+   private Path nextFound()
    {
-      if (index >= files.size()) return null;
-      File fp = (File) files.get(index++);
+      if (closed) return null;
+      Path path;
       try
       {
-         return new FileInputStream(fp);
+         path = found.take();
       }
-      catch (FileNotFoundException e)
+      catch (InterruptedException e)
       {
-         throw new RuntimeException(e);
+         Thread.currentThread().interrupt();
+         close();
+         return null;
+      }
+      if (path == END)
+      {
+         close();
+         if (failure != null) throw failure;
+         return null;
       }
+      return path;
+   }
+
+   private boolean accepts(Path path)
+   {
+      if (filter == null) return true;
+      String name = root.relativize(path).toString();
+      if (File.separatorChar != '/') name = name.replace(File.separatorChar, '/');
+      return filter.accepts(name);
    }
 
    public void close()
    {
+      closed = true;
+      while (!walks.isEmpty()) walks.pop().close();
+      if (found != null) found.clear();
+   }
+
+   /**
+    * The listing of one directory
+    */
+   private static class Walk
+   {
+      private final DirectoryStream<Path> stream;
+      private final Iterator<Path> entries;
+
+      private Walk(DirectoryStream<Path> stream)
+      {
+         this.stream = stream;
+         this.entries = stream.iterator();
+      }
+
+      /**
+       * List the given directory, or produce null if it cannot be read
+       */
+      static Walk open(Path dir)
+      {
+         try
+         {
+            return new Walk(Files.newDirectoryStream(dir));
+         }
+         catch (IOException e)
+         {
+            return null;
+         }
+      }
+
+      void close()
+      {
+         try
+         {
+            stream.close();
+         }
+         catch (IOException ignored)
+         {
+         }
+      }
+   }
+
+   /**
+    * Walks one directory: queues its accepted files and starts a task for each subdirectory
+    */
+   private class WalkTask implements Runnable
+   {
+      private final Path dir;
+      private final Executor executor;
+
+      WalkTask(Path dir, Executor executor)
+      {
+         this.dir = dir;
+         this.executor = executor;
+      }
+
+      public void run()
+      {
+         try
+         {
+            Walk walk = Walk.open(dir);
+            if (walk == null) return;
+            try
+            {
+               while (!closed && walk.entries.hasNext())
+               {
+                  Path path = walk.entries.next();
+                  if (Files.isDirectory(path))
+                  {
+                     pending.incrementAndGet();
+                     try
+                     {
+                        executor.execute(new WalkTask(path, executor));
+                     }
+                     catch (RuntimeException e)
+                     {
+                        pending.decrementAndGet();
+                        throw e;
+                     }
+                  }
+                  else if (accepts(path))
+                  {
+                     put(path);
+                  }
+               }
+            }
+            finally
+            {
+               walk.close();
+            }
+         }
+         catch (RuntimeException e)
+         {
+            if (failure == null) failure = e;
+         }
+         finally
+         {
+            if (pending.decrementAndGet() == 0) put(END);
+         }
+      }
+
+      /**
+       * Queue the given path, waiting for room unless the iterator is closed
+       */
+      private void put(Path path)
+      {
+         try
+         {
+            while (!closed && !found.offer(path, 100, TimeUnit.MILLISECONDS))
+            {
+               // wait for the reader
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
    }
 }
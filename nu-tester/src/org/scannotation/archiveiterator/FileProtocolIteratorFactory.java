@@ -20,7 +20,7 @@ public class FileProtocolIteratorFactory implements DirectoryIteratorFactory
       }
       else
       {
-         return new JarIterator(url.openStream(), filter);
+         return new ZipFileIterator(f, filter);
       }
    }
 }
@@ -1,5 +1,6 @@
 package org.scannotation.archiveiterator;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,6 +32,9 @@ public class IteratorFactory
 
       if (!urlString.endsWith("/"))
       {
+         // read a local jar through its central directory
+         File file = toFile(url);
+         if (file != null && file.isFile()) return new ZipFileIterator(file, filter);
          return new JarIterator(url.openStream(), filter);
       }
       else
@@ -40,4 +44,24 @@ public class IteratorFactory
          return factory.create(url, filter);
       }
    }
+
+   /**
+    * Produce the local file of a file: url, whether or not its path is encoded
+    *
+    * @param url the url of the file
+    * @return the file, or null if the url is not a file: url
+    */
+   public static File toFile(URL url)
+   {
+      if (!"file".equals(url.getProtocol())) return null;
+      try
+      {
+         return new File(url.toURI());
+      }
+      catch (Exception e)
+      {
+         // File.toURL() does not encode the path
+         return new File(url.getPath());
+      }
+   }
 }
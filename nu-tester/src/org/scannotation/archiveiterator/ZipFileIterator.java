@@ -0,0 +1,86 @@
+package org.scannotation.archiveiterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Iterates over the entries of a jar file on disk.  Unlike the JarIterator, the entries are found in the central
+ * directory of the jar, and the filter is applied to their names before anything is inflated, so the entries the
+ * filter rejects cost nothing.
+ * <p/>
+ * The accepted entries can also be opened by their position, in any order and from several threads at once, so
+ * that they can be decompressed concurrently.  The jar is closed when next() runs out of entries, or by close().
+ *
+ * @version $Revision: 1 $
+ */
+public class ZipFileIterator implements StreamIterator
+{
+   private final ZipFile zip;
+   private final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+   private int index = 0;
+
+   public ZipFileIterator(File file, Filter filter) throws IOException
+   {
+      zip = new ZipFile(file);
+      Enumeration<? extends ZipEntry> all = zip.entries();
+      while (all.hasMoreElements())
+      {
+         ZipEntry entry = all.nextElement();
+         if (!entry.isDirectory() && (filter == null || filter.accepts(entry.getName()))) entries.add(entry);
+      }
+   }
+
+   /**
+    * @return the number of entries accepted by the filter, or of all file entries without one
+    */
+   public int size()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Open the accepted entry at the given position.  User is responsible for closing the InputStream returned
+    *
+    * @param i the position of the entry, from 0 to size() - 1
+    * @throws IOException if the entry cannot be read
+    */
+   public InputStream open(int i) throws IOException
+   {
+      return zip.getInputStream(entries.get(i));
+   }
+
+   public InputStream next()
+   {
+      if (index >= entries.size())
+      {
+         close();
+         return null;
+      }
+      try
+      {
+         return open(index++);
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException("failed to browse jar", e);
+      }
+   }
+
+   public void close()
+   {
+      try
+      {
+         zip.close();
+      }
+      catch (IOException ignored)
+      {
+
+      }
+   }
+}
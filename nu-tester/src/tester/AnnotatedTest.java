@@ -1,13 +1,16 @@
 package tester;
 
+import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
 
 /**
- * Ideally, this class will be used to create threaded tests that
- * can execute sequentially.  Unfortunately, the current limitations of
- * Cobertura prevent us from running non-synchronous tests.  
+ * Runs the tests defined in one <code>@Example</code> class with its own
+ * <CODE>{@link Tester Tester}</CODE>, so that several classes can be tested
+ * at the same time by the <CODE>{@link ParallelRunner ParallelRunner}</CODE>.
+ * All of the reports are written to the given stream, and the counts of
+ * tests and failures are kept once the run has finished.
  * @author Weston Jossey
  * @since December 12 2008
  * @version 2.0
@@ -15,14 +18,35 @@ import java.lang.reflect.InvocationTargetException;
 public class AnnotatedTest implements Runnable{
 	String name;
 	Object o = null;
-	
+
+	/** the stream that receives all reports for this class */
+	PrintStream out;
+
+	/** the number of tests run, available once the run has finished */
+	int numberOfTests = 0;
+
+	/** the number of failed tests, available once the run has finished */
+	int errors = 0;
+
 	public AnnotatedTest(String name){
+		this(name, System.out);
+	}
+
+	/**
+	 * Prepare to run the tests in the class with the given name,
+	 * reporting to the given stream.
+	 * @param name the name of the class that defines the tests
+	 * @param out the stream that receives the reports
+	 */
+	public AnnotatedTest(String name, PrintStream out){
 		this.name = name;
-		init();
+		this.out = out;
 	}
-	
+
 	/**
-	 * Need to add comment
+	 * Construct an instance of the class that defines the tests.
+	 * Problems are reported to the output stream and leave
+	 * the instance <code>null</code>.
 	 */
 	private void init() {
 		Class<?> examples;
@@ -33,32 +57,53 @@ public class AnnotatedTest implements Runnable{
 			constructor.setAccessible(true);
 			o = constructor.newInstance();
 
-			System.out.println("Tester Results");
+			out.println("Tester Results");
 		} catch (NoSuchMethodException ex) {
-			System.out
-					.println("no default costructor: " + ex.getMessage());
+			out.println("no default costructor: " + ex.getMessage());
 		} catch (InvocationTargetException ex) {
-			System.out.println("Invocation: " + ex.getMessage());
+			out.println("Invocation: " + ex.getMessage());
 		} catch (ClassNotFoundException ex) {
 
 		} catch (IllegalArgumentException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			e.printStackTrace(out);
 		} catch (InstantiationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			e.printStackTrace(out);
 		} catch (IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			e.printStackTrace(out);
 		}
 	}
 
 	public void run() {
+		init();
 		// run tests if the instance was successfully constructed
-		Tester t = new Tester();
+		Tester t = new Tester(out, out);
 		if (o != null) {
 			t.runAnyTests(o);
 		}
+		this.numberOfTests = t.numberOfTests;
+		this.errors = t.errors;
+		out.flush();
+	}
+
+	/**
+	 * @return the name of the class that defines the tests
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of tests run
+	 */
+	public int getNumberOfTests() {
+		return numberOfTests;
+	}
+
+	/**
+	 * @return the number of failed tests
+	 */
+	public int getErrors() {
+		return errors;
 	}
-	
+
 }
@@ -0,0 +1,166 @@
+package tester;
+
+import java.io.PrintStream;
+
+/**
+ * <P>
+ * Keeps the reports of the tests until the end of the run, and then prints
+ * the summary followed by the reports. This is the
+ * <CODE>{@link ResultSink ResultSink}</CODE> a
+ * <CODE>{@link Tester Tester}</CODE> uses unless told otherwise.
+ * </P>
+ * <P>
+ * Only a bounded number of reports is kept: the reports past the limit are
+ * counted, and the report at the end shows how many were left out. The limit
+ * can be set with the system property <code>tester.maxRecords</code>, and
+ * the reports of the successful tests are only kept when a full report was
+ * asked for.
+ * </P>
+ */
+public class BufferedResultSink implements ResultSink {
+
+	/** the system property that sets the number of reports kept */
+	public static final String MAX_RECORDS_PROPERTY = "tester.maxRecords";
+
+	/** the number of reports kept when the property is not set */
+	public static final int DEFAULT_MAX_RECORDS = 1000;
+
+	/** the most reports kept in each of the two logs */
+	private final int maxRecords;
+
+	/** keep the reports of the successful tests? */
+	private boolean full = true;
+
+	/** the reports of the failed tests */
+	private StringBuilder failures = new StringBuilder();
+
+	/** the number of reports in <code>failures</code> */
+	private int failuresKept = 0;
+
+	/** the number of failures not kept */
+	private int failuresOmitted = 0;
+
+	/** the reports of all tests */
+	private StringBuilder all = new StringBuilder();
+
+	/** the number of reports in <code>all</code> */
+	private int allKept = 0;
+
+	/** the number of tests whose reports were not kept in <code>all</code> */
+	private int allOmitted = 0;
+
+	/**
+	 * Keep the number of reports given by the <code>tester.maxRecords</code>
+	 * system property, or <code>DEFAULT_MAX_RECORDS</code> when the property
+	 * is not set (or is not a positive number).
+	 */
+	public BufferedResultSink() {
+		this(defaultMaxRecords());
+	}
+
+	/**
+	 * Keep at most the given number of reports of the failed tests, and as
+	 * many of all tests.
+	 *
+	 * @param maxRecords the number of reports to keep, at least 1
+	 */
+	public BufferedResultSink(int maxRecords) {
+		if (maxRecords < 1)
+			throw new IllegalArgumentException(
+					"The number of reports kept must be positive: " + maxRecords);
+		this.maxRecords = maxRecords;
+	}
+
+	/**
+	 * Produce the number of reports given by the <code>tester.maxRecords</code>
+	 * system property, or <code>DEFAULT_MAX_RECORDS</code>.
+	 *
+	 * @return the default number of reports to keep
+	 */
+	public static int defaultMaxRecords() {
+		String value = System.getProperty(MAX_RECORDS_PROPERTY);
+		if (value != null) {
+			try {
+				int n = Integer.parseInt(value.trim());
+				if (n > 0)
+					return n;
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_MAX_RECORDS;
+	}
+
+	public void start(boolean full) {
+		this.full = full;
+		this.failures.setLength(0);
+		this.failuresKept = 0;
+		this.failuresOmitted = 0;
+		this.all.setLength(0);
+		this.allKept = 0;
+		this.allOmitted = 0;
+	}
+
+	public void success(TestRecord record) {
+		if (this.full)
+			this.addToAll(record);
+	}
+
+	public void failure(TestRecord record) {
+		if (this.failuresKept < this.maxRecords) {
+			this.failures.append('\n').append(record.toString());
+			this.failuresKept = this.failuresKept + 1;
+		} else
+			this.failuresOmitted = this.failuresOmitted + 1;
+		this.addToAll(record);
+	}
+
+	/**
+	 * Add the report of the given test to the reports of all tests, if there
+	 * is room.
+	 */
+	private void addToAll(TestRecord record) {
+		if (this.allKept < this.maxRecords) {
+			this.all.append('\n').append(record.toString());
+			this.allKept = this.allKept + 1;
+		} else
+			this.allOmitted = this.allOmitted + 1;
+	}
+
+	public void finish(String summary, boolean full, PrintStream out) {
+		if (full)
+			out.println(summary + "Full test results: \n-------------------\n"
+					+ this.allReports() + "\n--- END OF FULL TEST RESULTS ---");
+		else
+			out.println(summary + "Test results: \n--------------\n"
+					+ this.failureReports() + "\n--- END OF TEST RESULTS ---");
+	}
+
+	/**
+	 * Produce the reports of the failed tests kept so far, followed by the
+	 * note about those left out.
+	 */
+	String failureReports() {
+		return this.failures + omitted(this.failuresOmitted);
+	}
+
+	/**
+	 * Produce the reports of all tests kept so far, followed by the note
+	 * about those left out.
+	 */
+	String allReports() {
+		return this.all + omitted(this.allOmitted);
+	}
+
+	/**
+	 * Produce the note about the given number of reports left out, if any.
+	 */
+	private static String omitted(int count) {
+		if (count == 0)
+			return "";
+		else if (count == 1)
+			return "\n... 1 more test result not shown\n";
+		else
+			return "\n... " + count + " more test results not shown\n";
+	}
+}
@@ -0,0 +1,155 @@
+package tester;
+
+import java.util.Arrays;
+
+/**
+ * A set of pairs of objects, compared by identity (<code>==</code>) rather
+ * than by <code>equals</code>. The <CODE>{@link Inspector Inspector}</CODE>
+ * uses it to remember the pairs of objects it is already comparing, so that
+ * the comparison of circular data terminates.
+ * <P>
+ * The pairs are kept in a single open-addressing table, hashed with
+ * <code>System.identityHashCode</code>, so adding a pair never invokes a
+ * user-defined <code>hashCode</code> and never allocates anything but a
+ * larger table.
+ * </P>
+ */
+class IdentityPairSet {
+
+	/** the capacity (in pairs) of a new or cleared table */
+	private static final int INITIAL_CAPACITY = 32;
+
+	/** a table larger than this (in pairs) is discarded when cleared */
+	private static final int MAX_RETAINED_CAPACITY = 1024;
+
+	/** the pairs: the first object at an even index, the second after it */
+	private Object[] table = new Object[2 * INITIAL_CAPACITY];
+
+	/** the number of pairs in the set */
+	private int size = 0;
+
+	/** the pairs this set starts with, never changed through this set */
+	private final IdentityPairSet outer;
+
+	/**
+	 * Create an empty set.
+	 */
+	IdentityPairSet() {
+		this.outer = null;
+	}
+
+	/**
+	 * Create a set that holds the pairs of the given one, without copying
+	 * them. The given set must not change while this one is in use, and
+	 * clearing this set only removes the pairs added to it.
+	 *
+	 * @param outer the pairs to start with
+	 */
+	IdentityPairSet(IdentityPairSet outer) {
+		this.outer = outer;
+	}
+
+	/**
+	 * Add the pair (first, second) to this set.
+	 *
+	 * @param first the first object of the pair, not null
+	 * @param second the second object of the pair, not null
+	 * @return true if the pair was added, false if it was already present
+	 */
+	boolean add(Object first, Object second) {
+		if (this.outer != null && this.outer.contains(first, second))
+			return false;
+		int index = indexFor(first, second, this.table);
+		while (this.table[index] != null) {
+			if (this.table[index] == first && this.table[index + 1] == second)
+				return false;
+			index = next(index, this.table);
+		}
+		this.table[index] = first;
+		this.table[index + 1] = second;
+		this.size = this.size + 1;
+
+		// keep the table at most two thirds full
+		if (3 * this.size > this.table.length)
+			resize();
+		return true;
+	}
+
+	/**
+	 * Determine whether the pair (first, second) is in this set.
+	 *
+	 * @param first the first object of the pair, not null
+	 * @param second the second object of the pair, not null
+	 * @return true if the pair is present
+	 */
+	boolean contains(Object first, Object second) {
+		for (IdentityPairSet set = this; set != null; set = set.outer) {
+			int index = indexFor(first, second, set.table);
+			while (set.table[index] != null) {
+				if (set.table[index] == first && set.table[index + 1] == second)
+					return true;
+				index = next(index, set.table);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of pairs added to this set
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Remove all pairs from this set.
+	 */
+	void clear() {
+		if (this.size == 0)
+			return;
+		if (this.table.length > 2 * MAX_RETAINED_CAPACITY)
+			this.table = new Object[2 * INITIAL_CAPACITY];
+		else
+			Arrays.fill(this.table, null);
+		this.size = 0;
+	}
+
+	/**
+	 * Double the capacity of the table and rehash all pairs.
+	 */
+	private void resize() {
+		Object[] old = this.table;
+		Object[] bigger = new Object[2 * old.length];
+		for (int i = 0; i < old.length; i = i + 2) {
+			if (old[i] != null) {
+				int index = indexFor(old[i], old[i + 1], bigger);
+				while (bigger[index] != null)
+					index = next(index, bigger);
+				bigger[index] = old[i];
+				bigger[index + 1] = old[i + 1];
+			}
+		}
+		this.table = bigger;
+	}
+
+	/**
+	 * Produce the index of the first slot to probe for the given pair.
+	 */
+	private static int indexFor(Object first, Object second, Object[] table) {
+		int h = System.identityHashCode(first) * 31
+				+ System.identityHashCode(second);
+		// spread the bits, as the identity hash codes may be close together
+		h = h ^ (h >>> 16);
+		h = h * 0x85ebca6b;
+		h = h ^ (h >>> 13);
+		return (h & ((table.length >> 1) - 1)) << 1;
+	}
+
+	/**
+	 * Produce the index of the slot after the given one.
+	 */
+	private static int next(int index, Object[] table) {
+		index = index + 2;
+		return (index < table.length) ? index : 0;
+	}
+}
@@ -23,14 +23,28 @@ public class Inspector{
   /** the tolerance for comparison of relative difference of inexact numbers */
   protected static double TOLERANCE = 0.001;
 
+  /** the tolerance used by this <code>Inspector</code> -- set per 
+   * <CODE>{@link Tester Tester}</CODE> so that concurrent test runs do not 
+   * change each other's tolerance */
+  protected double tolerance = TOLERANCE;
+
   /** current indentation level for pretty-printing */
   protected static String INDENT = "  ";
   
-  /** a hashmap of pairs of hashcodes for two objects that are being compared:
+  /** the pairs of objects that are being compared:
    * if the same pair is compared again, the loop of comparisons stops 
-   * and produces true
+   * and produces true -- emptied after every comparison
    */
-  private HashMap<Integer, Integer> hashmap = new HashMap<Integer, Integer>();
+  private IdentityPairSet visited = new IdentityPairSet();
+
+  /** compare sets, and the keys of maps, without regard to the order
+   * of their elements? */
+  protected boolean unorderedSets = false;
+
+  /** is a comparison in progress? -- true while <code>isSame</code> runs,
+   * so that a nested call (from a user-defined <code>same</code> method)
+   * does not forget the pairs seen by the outer comparison */
+  private boolean comparing = false;
 
   /** 
    * Constructor: For the given instance get its <code>Class</code> 
@@ -62,168 +76,516 @@ public class Inspector{
    * on the given object with the given argument list</P>
    * <P>Additionally, user may specify that a method invocation must 
    * throw a given <code>Exception</code> with the given message.</P>
+   * <P>The comparison keeps its own stack of the datasets and objects
+   * being traversed, rather than recurring, so that long lists and deeply
+   * linked data do not overflow the Java stack. When the objects differ,
+   * <code>getMismatchPath</code> tells where the first difference is.</P>
    * 
    * @param obj1
    * @param obj2
    * @return true if the two given object are the same
    */
+  public boolean isSame(Object obj1, Object obj2){
+    boolean outermost = !this.comparing;
+    this.comparing = true;
+    try{
+      return this.compare(obj1, obj2);
+    }
+    finally{
+      if (outermost){
+        this.comparing = false;
+        this.visited.clear();
+      }
+    }
+  }
+
+  /**
+   * Produce the path from the compared objects to the first pair of values
+   * found to be different by the last comparison that failed, for example 
+   * <code>.items[3].name</code>. The path is empty if the compared objects 
+   * themselves differ.
+   * 
+   * @return the path to the first difference
+   */
+  public String getMismatchPath(){
+    return this.mismatchPath;
+  }
+
+  /**
+   * Compare the two given objects for extensional equality, as described
+   * in <code>isSame</code>, remembering the pairs of objects compared
+   * so far.
+   * 
+   * @param obj1
+   * @param obj2
+   * @return true if the two given object are the same
+   */
+  protected boolean compare(Object obj1, Object obj2){
+    ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    int result = this.examine(obj1, obj2, stack);
+    if (result == SAME)
+      return true;
+    if (result == DIFFERENT)
+      return this.mismatch(stack);
+    return this.traverse(stack);
+  }
+
+  /** the result of examining a pair of objects: the objects are the same */
+  private static final int SAME = 0;
+
+  /** the result of examining a pair of objects: the objects differ */
+  private static final int DIFFERENT = 1;
+
+  /** the result of examining a pair of objects: their parts have to be 
+   * compared -- a <code>Frame</code> for them is on the stack */
+  private static final int PENDING = 2;
+
+  /** the path to the first difference found by the last failed 
+   * comparison */
+  private String mismatchPath = "";
+
+  /** the position of the primitive value (a field or an element of an
+   * array) found different by the last call to <code>examine</code>, 
+   * null if there was none */
+  private String differentPart = null;
+
+  /**
+   * Compare the parts of the objects whose <code>Frame</code>s are on the 
+   * given stack, until the stack is empty or a difference is found.
+   * 
+   * @param stack the parts still to compare, innermost on top
+   * @return true if all parts are the same
+   */
+  private boolean traverse(ArrayDeque<Frame> stack){
+    while (!stack.isEmpty()){
+      Frame top = stack.peek();
+      int next = top.advance();
+      if (next == Frame.DONE)
+        stack.pop();
+      else if (next == Frame.MISMATCH)
+        return this.mismatch(stack);
+      else if (this.examine(top.left, top.right, stack) == DIFFERENT)
+        return this.mismatch(stack);
+    }
+    return true;
+  }
+
+  /**
+   * Record the path to the difference found at the top of the given stack.
+   * 
+   * @param stack the parts being compared when the difference was found
+   * @return false, as the compared objects are not the same
+   */
+  private boolean mismatch(ArrayDeque<Frame> stack){
+    StringBuilder path = new StringBuilder();
+    Iterator<Frame> frames = stack.descendingIterator();
+
+    // a step repeated many times (as in a long linked list) is shown once,
+    // with the number of repetitions: (.next)x1000
+    String step = null;
+    int repeated = 0;
+    while (frames.hasNext()){
+      StringBuilder next = new StringBuilder();
+      frames.next().position(next);
+      if (next.toString().equals(step))
+        repeated = repeated + 1;
+      else{
+        appendSteps(path, step, repeated);
+        step = next.toString();
+        repeated = 1;
+      }
+    }
+    appendSteps(path, step, repeated);
+    if (this.differentPart != null)
+      path.append(this.differentPart);
+    this.mismatchPath = path.toString();
+    this.differentPart = null;
+    return false;
+  }
+
+  /**
+   * Add the given step of a path, repeated the given number of times.
+   */
+  private static void appendSteps(StringBuilder path, String step, 
+                                  int repeated){
+    if (repeated > 2)
+      path.append('(').append(step).append(")x").append(repeated);
+    else
+      for (int i = 0; i < repeated; i++)
+        path.append(step);
+  }
+
+  /**
+   * Compare the given pair of objects as far as possible without looking
+   * at their parts. If the parts have to be compared, push a 
+   * <code>Frame</code> that produces the pairs of parts onto the stack.
+   * 
+   * @param obj1
+   * @param obj2
+   * @param stack the parts still to compare
+   * @return <code>SAME</code>, <code>DIFFERENT</code> or 
+   * <code>PENDING</code>
+   */
   @SuppressWarnings("unchecked")
-public boolean isSame(Object obj1, Object obj2){
+  private int examine(Object obj1, Object obj2, ArrayDeque<Frame> stack){
     /** make sure both objects are not null */
     if (obj1 == null)
-      return obj2 == null; //Returns true iff obj1 & obj2 are both null, otherwise returns false
+      return (obj2 == null) ? SAME : DIFFERENT;
     if (obj2 == null)
-      return false;
+      return DIFFERENT;
     if(obj1 == obj2)
-    	return true; //obj1 and obj2 are the same object
+    	return SAME; //obj1 and obj2 are the same object
     
     /** handle world teachpack colors */
     obj1 = this.adjustIColors(obj1);
     obj2 = this.adjustIColors(obj2);
     
-    Reflector r1 = new Reflector(obj1);
-    Reflector r2 = new Reflector(obj2);   
-    
-    boolean sameClass = r1.sampleClass.equals(r2.sampleClass);
-    
-    if (sameClass){
+    Class<?> c = obj1.getClass();
+    if (!c.equals(obj2.getClass()))
+      return DIFFERENT;
+    String name = c.getName();
       
-      /** Random objects are all the same */
-      if (r1.sampleClass.getName().equals("java.util.Random")){
-        return true;
-      }
+    /** Random objects are all the same */
+    if (name.equals("java.util.Random"))
+      return SAME;
 
-      /** handle String objects separately */
-      if (r1.sampleClass.getName().equals("java.lang.String")){
-        return obj1.equals(obj2);
-      }
+    /** handle String objects separately */
+    if (name.equals("java.lang.String"))
+      return result(obj1.equals(obj2));
 
-      /** handle Color objects separately */
-      /** --- compare only the RGB of colors */
-     /*if (r1.sampleClass.getName().equals("java.awt.Color")){
-        return ((java.awt.Color)obj1).getRGB() ==
-               ((java.awt.Color)obj2).getRGB();
-      }*/
-
-      /** handle the primitive types separately */
-      if (r1.sampleClass.isPrimitive()){
-        if (isDouble(r1.sampleClass.getName()))
-          return isSameDouble((Double)obj1, (Double)obj2);
-        else if (isFloat(r1.sampleClass.getName()))
-          return isSameFloat((Float)obj1, (Float)obj2);
-        else
-          return (obj1.equals(obj2));
-      }
-
-      /** handle the wrapper types separately */
-      if (isWrapperClass(r1.sampleClass.getName())){
-        if (isDouble(r1.sampleClass.getName()))
-          return isSameDouble((Double)obj1, (Double)obj2);
-        else if (isFloat(r1.sampleClass.getName()))
-          return isSameFloat((Float)obj1, (Float)obj2);
-        else
-          return (obj1.equals(obj2));
-      }
+    /** handle the wrapper types separately */
+    if (isWrapperClass(name)){
+      if (isDouble(name))
+        return result(isSameDouble((Double)obj1, (Double)obj2));
+      else if (isFloat(name))
+        return result(isSameFloat((Float)obj1, (Float)obj2));
+      else
+        return result(obj1.equals(obj2));
+    }
       
-      /** handle the Canvas class in the draw teachpack */
-      if (isOurCanvas(r1.sampleClass.getName()))
-        if (isOurCanvas(r2.sampleClass.getName()))
-          return (obj1.equals(obj2));
-        else
-          return false;
+    /** handle the Canvas class in the draw teachpack */
+    if (isOurCanvas(name))
+      return result(obj1.equals(obj2));
+
+    /** Record the information about the object compared
+     * and check whether the current pair has already been tested
+     * for equality, or has been viewed before.
+     */
+    if (!this.visited.add(obj1, obj2))
+      return SAME;
       
-      /** two Random objects are never compared */
-		if (r1.sampleClass.getName().equals("java.util.Random")) {
-			return true;
-		}
-
-      /** Record the information about the object compared
-       * and check whether the current pair has already been tested
-       * for equality, or has been viewed before.
-       */
-      Integer i1 = obj1.hashCode();
-      Integer i2 = obj2.hashCode();
+    /** handle Array objects */
+    if (c.isArray()){
+      if (Array.getLength(obj1) != Array.getLength(obj2))
+        return DIFFERENT;
+
+      /** compare arrays of primitive values right here, element by
+       * element without boxing */
+      if (c.getComponentType().isPrimitive()){
+        int i = this.differentElement(obj1, obj2);
+        if (i < 0)
+          return SAME;
+        this.differentPart = "[" + i + "]";
+        return DIFFERENT;
+      }
+      stack.push(new ArrayFrame(obj1, obj2));
+      return PENDING;
+    }
+            
+    /** handle ISame objects by delegating to the user-defined method */
+    if ((obj1 instanceof ISame) && (obj2 instanceof ISame))
+      return result(((ISame)obj1).same((ISame)obj2));
       
-      Integer i2match = hashmap.get(i1);
-     
-      if ((i2match != null) && (i2match.equals(i2)))
-        return true;
-    
-      hashmap.put(i1, i2);
+    /** collections of different sizes cannot be the same */
+    if ((obj1 instanceof Collection) && (obj2 instanceof Collection)
+        && ((Collection<?>)obj1).size() != ((Collection<?>)obj2).size())
+      return DIFFERENT;
+
+    /** compare sets without regard to the order of their elements,
+     * if desired */
+    if (this.unorderedSets && (obj1 instanceof Set) && (obj2 instanceof Set))
+      return result(this.isSameSet((Set<?>)obj1, (Set<?>)obj2));
+
+    /** handle Iterable objects */
+    if ((obj1 instanceof Iterable) && (obj2 instanceof Iterable)){
+      stack.push(new IteratorFrame(((Iterable<?>)obj1).iterator(),
+                                   ((Iterable<?>)obj2).iterator()));
+      return PENDING;
+    }
       
-      if(obj1.getClass().isArray() && obj2.getClass().isArray() &&	
-    		  obj1.getClass() == obj2.getClass()){
-    	  int length = Array.getLength(obj1);
-          if (Array.getLength(obj2) == length){
-            for(int i = 0; i < length; i++){
-            	if(!isSame(Array.get(obj1, i), Array.get(obj2, i)))
-            		return false;
-            }
-            return true;
-          }
-          else
-            return false;
+    /** handle the Map objects by comparing their size, key-set, and
+     * key-value mappings */
+    if ((obj1 instanceof Map) && (obj2 instanceof Map)){
+      if (((Map)obj1).size() != ((Map)obj2).size())
+        return DIFFERENT;
+      stack.push(new MapFrame((Map)obj1, (Map)obj2, this));
+      return PENDING;
+    }
+
+    /** now handle the general case: compare the primitive fields
+     * directly, then push the remaining fields to compare */
+    StructuralComparator sc = StructuralComparator.forClass(c);
+    try{
+      Field f = sc.differentPrimitive(obj1, obj2, this);
+      if (f != null){
+        this.differentPart = "." + f.getName();
+        return DIFFERENT;
       }
-      
-      /** handle Array objects */
-      if ((obj1 instanceof Object[]) && (obj2 instanceof Object[])){
-        int length = Array.getLength(obj1);
-        if (Array.getLength(obj2) == length){
-          for(int i = 0; i < length; i++){
-            if (!isSame(((Object[])obj1)[i], ((Object[])obj2)[i]))
-              return false;
+    }catch(IllegalAccessException e){
+      System.out.println("same comparing " + name + 
+          " cannot access a field" + 
+          " message: " + e.getMessage());
+      return SAME;
+    }
+    if (sc.references.length == 0)
+      return SAME;
+    stack.push(new FieldFrame(obj1, obj2, sc.references));
+    return PENDING;
+  }
+
+  /**
+   * Find the first element in which two arrays of the same primitive type
+   * and of the same length differ. Inexact numbers are compared with 
+   * the tolerance, all other values with <code>==</code>.
+   * 
+   * @param array1 the first array
+   * @param array2 the second array
+   * @return the index of the first different element, or -1 if the arrays
+   * are the same
+   */
+  protected int differentElement(Object array1, Object array2){
+    if (array1 instanceof double[]){
+      double[] a1 = (double[])array1;
+      double[] a2 = (double[])array2;
+      for (int i = 0; i < a1.length; i++)
+        if (!isSameDouble(a1[i], a2[i]))
+          return i;
+      return -1;
+    }
+    if (array1 instanceof float[]){
+      float[] a1 = (float[])array1;
+      float[] a2 = (float[])array2;
+      for (int i = 0; i < a1.length; i++)
+        if (!isSameFloat(a1[i], a2[i]))
+          return i;
+      return -1;
+    }
+
+    /** for the exact types let Arrays.equals decide, and look for the
+     * different element only when there is one */
+    if (array1 instanceof int[]){
+      int[] a1 = (int[])array1;
+      int[] a2 = (int[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    else if (array1 instanceof long[]){
+      long[] a1 = (long[])array1;
+      long[] a2 = (long[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    else if (array1 instanceof char[]){
+      char[] a1 = (char[])array1;
+      char[] a2 = (char[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    else if (array1 instanceof byte[]){
+      byte[] a1 = (byte[])array1;
+      byte[] a2 = (byte[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    else if (array1 instanceof short[]){
+      short[] a1 = (short[])array1;
+      short[] a2 = (short[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    else if (array1 instanceof boolean[]){
+      boolean[] a1 = (boolean[])array1;
+      boolean[] a2 = (boolean[])array2;
+      if (Arrays.equals(a1, a2))
+        return -1;
+      for (int i = 0; i < a1.length; i++)
+        if (a1[i] != a2[i])
+          return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Determine whether two sets of the same size contain the same elements,
+   * in any order. An element of the first set matches an element of the
+   * second one that it <code>equals</code>; the remaining elements of the
+   * first set are matched with the elements of the second set that are not
+   * <code>equal</code> to an element of the first set, each to its own
+   * extensionally equal one (see <code>matchSame</code>).
+   * 
+   * @param set1 the first set
+   * @param set2 the second set
+   * @return true if every element of the first set has its own match in
+   * the second set
+   */
+  protected boolean isSameSet(Set<?> set1, Set<?> set2){
+    ArrayList<Object> unmatched = new ArrayList<Object>();
+    for (Object e1 : set1){
+      // the fast path: the second set has an equal element, which no
+      // other element may match
+      if (!set2.contains(e1))
+        unmatched.add(e1);
+    }
+    return unmatched.isEmpty() 
+        || this.matchSame(unmatched, set2, set1) != null;
+  }
+
+  /**
+   * Match each of the given values with its own extensionally equal
+   * candidate. As inexact numbers make extensional equality intransitive,
+   * a value may have to give up its first match for another value: the
+   * values are matched one at a time, moving the earlier ones to other
+   * candidates when that lets the next one be matched too.
+   * <P>Each value is compared by a separate <code>Inspector</code>, made
+   * by <code>newInspector</code>, so that failed attempts leave no trace
+   * in this comparison. The separate <code>Inspector</code> starts with the
+   * pairs this one is comparing, so that circular data through a set still
+   * terminates.</P>
+   * 
+   * @param values the values to match
+   * @param candidates the values to search
+   * @param claimed the values matching candidates by <code>equals</code>:
+   * those candidates are not available
+   * @return the candidate matched with each value, or null if some value
+   * has no match
+   */
+  private IdentityHashMap<Object, Object> matchSame(
+      List<?> values, Collection<?> candidates, Collection<?> claimed){
+    ArrayList<Object> free = new ArrayList<Object>();
+    for (Object candidate : candidates){
+      if (!claimed.contains(candidate))
+        free.add(candidate);
+    }
+    if (free.size() < values.size())
+      return null;
+
+    Matching matching = new Matching(this, values, free);
+    for (int i = 0; i < values.size(); i++){
+      if (!matching.match(i, new boolean[free.size()]))
+        return null;
+    }
+    IdentityHashMap<Object, Object> result = 
+      new IdentityHashMap<Object, Object>();
+    for (int j = 0; j < free.size(); j++){
+      if (matching.owner[j] >= 0)
+        result.put(values.get(matching.owner[j]), free.get(j));
+    }
+    return result;
+  }
+
+  /**
+   * Produce a new <code>Inspector</code> to compare the elements of sets,
+   * and the keys of maps, that are not <code>equal</code>. Its tolerance
+   * and its choice of unordered sets are then set to those of this one.
+   * A subclass that changes how values are compared should produce an
+   * instance of itself here.
+   * 
+   * @return a new <code>Inspector</code>
+   */
+  protected Inspector newInspector(){
+    return new Inspector();
+  }
+
+  /**
+   * The state of <code>matchSame</code>: which candidate each value is
+   * matched with, and which pairs were already compared.
+   */
+  private static class Matching{
+    private final Inspector inspector;
+    private final List<?> values;
+    private final List<Object> candidates;
+
+    /** the <code>Inspector</code> comparing each value, once needed */
+    private final Inspector[] inspectors;
+
+    /** the comparison of each value with each candidate: null until the 
+     * pair is first compared */
+    private final Boolean[][] same;
+
+    /** the index of the value matched with each candidate, or -1 */
+    final int[] owner;
+
+    Matching(Inspector inspector, List<?> values, List<Object> candidates){
+      this.inspector = inspector;
+      this.values = values;
+      this.candidates = candidates;
+      this.inspectors = new Inspector[values.size()];
+      this.same = new Boolean[values.size()][candidates.size()];
+      this.owner = new int[candidates.size()];
+      Arrays.fill(this.owner, -1);
+    }
+
+    /**
+     * Match the value at index i with a candidate not tried yet for this
+     * match, if need be matching its owner with another one instead.
+     */
+    boolean match(int i, boolean[] tried){
+      for (int j = 0; j < this.candidates.size(); j++){
+        if (!tried[j] && this.isSame(i, j)){
+          tried[j] = true;
+          if (this.owner[j] < 0 || this.match(this.owner[j], tried)){
+            this.owner[j] = i;
+            return true;
           }
-          return true;
         }
-        else
-          return false;
       }
-            
-      /** handle ISame objects by delegating to the user-defined method */
-      if ((obj1 instanceof ISame) && (obj2 instanceof ISame))
-        return ((ISame)obj1).same((ISame)obj2);
-        
-      
-      /** handle Iterable objects */
-      if ((obj1 instanceof Iterable) && (obj2 instanceof Iterable))
-        return isSameIterable((Iterable<?>)obj1, (Iterable<?>)obj2);
-      
-      /** handle the Map objects by comparing their size, key-set, and
-       * key-value mappings */
-      if ((obj1 instanceof Map) && (obj2 instanceof Map))
-        return isSameMap((Map)obj1, (Map)obj2); 
-
-      /** now handle the general case */     
-      boolean sameValues = true;
-      int i = 0;
-      try{
-        for ( ; i < Array.getLength(r1.sampleDeclaredFields); i++){
-          sameValues = sameValues && 
-            isSame(r1.sampleDeclaredFields[i].get(obj1),
-                   r2.sampleDeclaredFields[i].get(obj2));
+      return false;
+    }
+
+    /**
+     * Compare the value at index i with the candidate at index j, once.
+     */
+    private boolean isSame(int i, int j){
+      if (this.same[i][j] == null){
+        if (this.inspectors[i] == null){
+          Inspector nested = this.inspector.newInspector();
+          nested.tolerance = this.inspector.tolerance;
+          nested.unorderedSets = this.inspector.unorderedSets;
+          nested.visited = new IdentityPairSet(this.inspector.visited);
+          this.inspectors[i] = nested;
         }
-      }catch(IllegalAccessException e){
-        System.out.println("same comparing " + 
-            r1.sampleDeclaredFields[i].getType().getName() + " and " +
-            r2.sampleDeclaredFields[i].getType().getName() + 
-            "cannot access the field " + i + 
-            " message: " + e.getMessage());
-        System.out.println("class 1: " + r1.sampleClass.getName());
-        System.out.println("class 2: " + r2.sampleClass.getName());
+        this.same[i][j] = this.inspectors[i].isSame(this.values.get(i),
+                                                     this.candidates.get(j));
       }
-      
-      
-
-      return sameValues;
+      return this.same[i][j];
     }
-    else
-      return false;
   }
-  
+
+  /**
+   * Convert the result of a comparison of two values.
+   */
+  private static int result(boolean same){
+    return same ? SAME : DIFFERENT;
+  }
  
   /**
    * Determine whether the relative difference between two double numbers
-   * is below the expected <code>TOLERANCE</code>
+   * is below the expected <code>tolerance</code>
    * @param d1 the first inexact number
    * @param d2 the second inexact number
    * @return true is the two numbers are nearly the same 
@@ -233,13 +595,13 @@ public boolean isSame(Object obj1, Object obj2){
       return true;
     else{
      return (Math.abs(d1 - d2) / (Math.max (Math.abs(d1), Math.abs(d2))))
-             < TOLERANCE;
+             < this.tolerance;
     }
   }
  
   /**
    * Determine whether the relative difference between two float numbers
-   * is below the expected <code>TOLERANCE</code>
+   * is below the expected <code>tolerance</code>
    * @param f1 the first inexact number
    * @param f2 the second inexact number
    * @return true is the two numbers are nearly the same 
@@ -251,7 +613,7 @@ public boolean isSame(Object obj1, Object obj2){
       Double d1 = ((Float)f1).doubleValue();
       Double d2 = ((Float)f2).doubleValue();
      return (Math.abs(d1 - d2) / (Math.max (Math.abs(d1), Math.abs(d2))))
-             < TOLERANCE;
+             < this.tolerance;
     }
   }
 
@@ -278,18 +640,9 @@ public boolean isSame(Object obj1, Object obj2){
    * (in the same order)
    */
   protected boolean isSameData(Iterator<?> it1, Iterator<?> it2){
-    /** if the first dataset is empty, the second one has to be too */
-    if (!it1.hasNext()){
-      return !it2.hasNext();
-    }
-    /** the first dataset is nonempty - make sure the second one is too... */
-    else if(!it2.hasNext())
-      return false;
-    /** now both have data - compare the next pair of data and recur */
-    else{
-      return this.isSame(it1.next(), it2.next()) &&
-             this.isSameData(it1, it2);
-    }
+    ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    stack.push(new IteratorFrame(it1, it2));
+    return this.traverse(stack);
   }
 
 
@@ -305,21 +658,192 @@ public boolean isSame(Object obj1, Object obj2){
     if (obj1.size() != obj2.size())
       return false;
     
-    // the key sets for the two maps have the same size - pick one
-    Set<K> set1 = obj1.keySet();
-        
-    for (Object key : set1){
-      // make sure each key is in both key sets
-      if (!obj2.containsKey(key))
-        return false;
-      
-      // now compare the corresponding values
-      if (!this.isSame(obj1.get(key), obj2.get(key)))
-          return false;   
+    ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    stack.push(new MapFrame(obj1, obj2, this));
+    return this.traverse(stack);
+  }
+
+  /**------- THE PARTS OF THE OBJECTS THAT ARE BEING COMPARED ----------*/
+
+  /**
+   * The parts of a pair of objects that are being compared: produces 
+   * the pairs of parts one at a time.
+   */
+  private abstract static class Frame{
+    /** <code>advance</code> found a new pair of parts */
+    static final int NEXT = 0;
+
+    /** <code>advance</code> found that all parts have been compared */
+    static final int DONE = 1;
+
+    /** <code>advance</code> found that the objects differ */
+    static final int MISMATCH = 2;
+
+    /** the current pair of parts */
+    Object left;
+    Object right;
+
+    /**
+     * Move on to the next pair of parts, and set <code>left</code> and 
+     * <code>right</code> to them.
+     * @return <code>NEXT</code>, <code>DONE</code> or <code>MISMATCH</code>
+     */
+    abstract int advance();
+
+    /**
+     * Add the position of the current pair of parts to the given path.
+     * @param path the path so far
+     */
+    abstract void position(StringBuilder path);
+  }
+
+  /** the elements of two arrays of the same class and length */
+  private static class ArrayFrame extends Frame{
+    private final Object array1;
+    private final Object array2;
+    private final int length;
+    private int index = -1;
+
+    ArrayFrame(Object array1, Object array2){
+      this.array1 = array1;
+      this.array2 = array2;
+      this.length = Array.getLength(array1);
+    }
+
+    int advance(){
+      this.index = this.index + 1;
+      if (this.index >= this.length)
+        return DONE;
+      this.left = Array.get(this.array1, this.index);
+      this.right = Array.get(this.array2, this.index);
+      return NEXT;
+    }
+
+    void position(StringBuilder path){
+      path.append('[').append(this.index).append(']');
+    }
+  }
+
+  /** the data generated by two iterators, in order */
+  private static class IteratorFrame extends Frame{
+    private final Iterator<?> it1;
+    private final Iterator<?> it2;
+    private int index = -1;
+
+    IteratorFrame(Iterator<?> it1, Iterator<?> it2){
+      this.it1 = it1;
+      this.it2 = it2;
+    }
+
+    int advance(){
+      this.index = this.index + 1;
+      /** if the first dataset is empty, the second one has to be too */
+      if (!this.it1.hasNext())
+        return this.it2.hasNext() ? MISMATCH : DONE;
+      /** the first dataset is nonempty - make sure the second one is too */
+      if (!this.it2.hasNext())
+        return MISMATCH;
+      this.left = this.it1.next();
+      this.right = this.it2.next();
+      return NEXT;
+    }
+
+    void position(StringBuilder path){
+      path.append('[').append(this.index).append(']');
+    }
+  }
+
+  /** the values of two maps of the same size, key by key */
+  private static class MapFrame extends Frame{
+    private final Map<Object, Object> map1;
+    private final Map<Object, Object> map2;
+    private final Iterator<Map.Entry<Object, Object>> entries;
+    private final Inspector inspector;
+    private Object key;
+
+    /** the keys of the second map matched with the keys of the first map
+     * missing from it, by extensional equality -- once needed */
+    private IdentityHashMap<Object, Object> matched = null;
+
+    @SuppressWarnings("unchecked")
+    MapFrame(Map<?, ?> map1, Map<?, ?> map2, Inspector inspector){
+      this.map1 = (Map<Object, Object>)map1;
+      this.map2 = (Map<Object, Object>)map2;
+      this.entries = this.map1.entrySet().iterator();
+      this.inspector = inspector;
+    }
+
+    int advance(){
+      if (!this.entries.hasNext())
+        return DONE;
+      Map.Entry<Object, Object> entry = this.entries.next();
+      this.key = entry.getKey();
+      this.left = entry.getValue();
+
+      // look the key up once -- only a null value needs a second look,
+      // to tell a missing key from a key mapped to null
+      this.right = this.map2.get(this.key);
+      if (this.right != null || this.map2.containsKey(this.key))
+        return NEXT;
+
+      // make sure each key is in both key sets -- when comparing sets
+      // without order, also look for an extensionally equal key
+      if (!this.inspector.unorderedSets)
+        return MISMATCH;
+      if (this.matched == null){
+        ArrayList<Object> unmatched = new ArrayList<Object>();
+        for (Object key1 : this.map1.keySet()){
+          if (!this.map2.containsKey(key1))
+            unmatched.add(key1);
+        }
+        this.matched = this.inspector.matchSame(unmatched, 
+            this.map2.keySet(), this.map1.keySet());
+      }
+      if (this.matched == null)
+        return MISMATCH;
+      this.right = this.map2.get(this.matched.get(this.key));
+      return NEXT;
+    }
+
+    void position(StringBuilder path){
+      path.append('{').append(String.valueOf(this.key)).append('}');
+    }
+  }
+
+  /** the values of the reference fields of two instances of one class */
+  private static class FieldFrame extends Frame{
+    private final Object obj1;
+    private final Object obj2;
+    private final Field[] fields;
+    private int index = -1;
+
+    FieldFrame(Object obj1, Object obj2, Field[] fields){
+      this.obj1 = obj1;
+      this.obj2 = obj2;
+      this.fields = fields;
+    }
+
+    int advance(){
+      this.index = this.index + 1;
+      if (this.index >= this.fields.length)
+        return DONE;
+      try{
+        this.left = this.fields[this.index].get(this.obj1);
+        this.right = this.fields[this.index].get(this.obj2);
+      }catch(IllegalAccessException e){
+        System.out.println("same comparing " + 
+            this.obj1.getClass().getName() + 
+            " cannot access the field " + this.fields[this.index].getName() +
+            " message: " + e.getMessage());
+        this.left = null;
+        this.right = null;
+      }
+      return NEXT;
+    }
+
+    void position(StringBuilder path){
+      path.append('.').append(this.fields[this.index].getName());
     }
-    
-    // all tests passed
-    return true;
   }
   
   /**------- THE METHODS USED TO DETERMINE THE TYPES OF OBJECTS ----------*/ 
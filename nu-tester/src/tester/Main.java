@@ -37,7 +37,6 @@ public class Main {
 	 * @throws Exception 
 	 */
 	public static void main(String argv[]) throws Exception {
-		//pool = Executors.newCachedThreadPool(); //For concurrency
 		//Instrumentor inst = new Instrumentor();
 		//Set<String> instrumentedClasses = new AnnotationScanner(tester.cobertura.Instrument.class).scan();
 		
@@ -59,13 +58,9 @@ public class Main {
 		try {
 			classes = scanner.scan();
 			
-			// get the name of the class that defines the tests
+			// run the tests in all of the annotated classes
 			if(classes != null){
-				for (String clazz : classes){
-					new AnnotatedTest(clazz).run();
-					System.out.println(clazz);
-					//pool.execute(new AnnotatedTest(clazz));
-				}
+				new ParallelRunner().run(classes, System.out);
 			}
 		} catch (Exception e) {
 			System.err.println("Unable to scan for the annotated classes.\n" +
@@ -148,7 +143,5 @@ public class Main {
 				System.out.println(" ");
 			}
 		}
-		
-		System.exit(0); //Some bug is causing the threads not to terminate
 	}
 }
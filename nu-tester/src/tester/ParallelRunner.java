@@ -0,0 +1,198 @@
+package tester;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <P>
+ * Runs the tests in several <code>@Example</code> classes at the same time.
+ * Every class gets its own <CODE>{@link AnnotatedTest AnnotatedTest}</CODE>
+ * (and so its own <CODE>{@link Tester Tester}</CODE>) on a bounded pool of
+ * worker threads.
+ * </P>
+ * <P>
+ * The report of each class is collected separately and printed in the order
+ * of the class names, no matter which class finishes first, followed by a
+ * summary of all classes.
+ * </P>
+ * <P>
+ * The number of workers defaults to the number of available processors, and
+ * can be set with the system property <code>tester.threads</code>.
+ * </P>
+ */
+public class ParallelRunner {
+
+	/** the system property that sets the number of worker threads */
+	public static final String THREADS_PROPERTY = "tester.threads";
+
+	/** the number of worker threads */
+	private int threads;
+
+	/** the total number of tests run by the last <code>run</code> */
+	private int numberOfTests;
+
+	/** the total number of failed tests in the last <code>run</code> */
+	private int errors;
+
+	/**
+	 * Run the tests with the default number of workers.
+	 */
+	public ParallelRunner() {
+		this(defaultThreads());
+	}
+
+	/**
+	 * Run the tests with the given number of workers.
+	 *
+	 * @param threads the number of worker threads, at least 1
+	 */
+	public ParallelRunner(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+					"The number of worker threads must be positive: " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Produce the number of workers given by the <code>tester.threads</code>
+	 * system property, or the number of available processors when the
+	 * property is not set (or is not a positive number).
+	 *
+	 * @return the default number of worker threads
+	 */
+	public static int defaultThreads() {
+		String value = System.getProperty(THREADS_PROPERTY);
+		if (value != null) {
+			try {
+				int n = Integer.parseInt(value.trim());
+				if (n > 0)
+					return n;
+			} catch (NumberFormatException e) {
+				// fall back to the number of processors
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Run the tests in all of the given classes, and print the report of
+	 * every class, followed by a summary, to the given stream.
+	 *
+	 * @param classNames the names of the classes that define the tests
+	 * @param out the stream that receives the reports
+	 * @return true if all the tests passed
+	 * @throws InterruptedException if interrupted while waiting for the tests
+	 */
+	public boolean run(Collection<String> classNames, PrintStream out)
+			throws InterruptedException {
+		this.numberOfTests = 0;
+		this.errors = 0;
+
+		// sort the names so that the reports come out in the same order
+		// on every run
+		TreeSet<String> names = new TreeSet<String>(classNames);
+
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(this.threads, Math.max(names.size(), 1)),
+				new WorkerFactory());
+		try {
+			List<AnnotatedTest> tests = new ArrayList<AnnotatedTest>();
+			List<ByteArrayOutputStream> reports =
+				new ArrayList<ByteArrayOutputStream>();
+			List<Future<?>> results = new ArrayList<Future<?>>();
+
+			for (String name : names) {
+				ByteArrayOutputStream report = new ByteArrayOutputStream();
+				AnnotatedTest test = new AnnotatedTest(name,
+						new PrintStream(report, true));
+				tests.add(test);
+				reports.add(report);
+				results.add(pool.submit(test));
+			}
+
+			// print each report as soon as it and all the ones before it
+			// are complete
+			for (int i = 0; i < tests.size(); i++) {
+				AnnotatedTest test = tests.get(i);
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					test.out.println("Unable to run the tests in "
+							+ test.getName());
+					e.getCause().printStackTrace(test.out);
+					this.errors = this.errors + 1;
+				}
+				out.print(reports.get(i).toString());
+				out.println(test.getName());
+				this.numberOfTests = this.numberOfTests
+						+ test.getNumberOfTests();
+				this.errors = this.errors + test.getErrors();
+			}
+		} finally {
+			pool.shutdownNow();
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		}
+
+		out.println(summary(names.size()));
+		out.flush();
+		return this.errors == 0;
+	}
+
+	/**
+	 * Produce a <code>String</code> describing the number of classes and
+	 * tests that were run and the number of tests that failed.
+	 *
+	 * @param classes the number of classes run
+	 */
+	private String summary(int classes) {
+		String s = "\nRan " + this.numberOfTests
+				+ (this.numberOfTests == 1 ? " test" : " tests") + " in "
+				+ classes + (classes == 1 ? " class" : " classes") + ".\n";
+		if (this.errors == 0)
+			return s + "All tests passed.\n";
+		else if (this.errors == 1)
+			return s + "1 test failed.\n";
+		else
+			return s + this.errors + " tests failed.\n";
+	}
+
+	/**
+	 * @return the total number of tests run by the last <code>run</code>
+	 */
+	public int getNumberOfTests() {
+		return numberOfTests;
+	}
+
+	/**
+	 * @return the total number of failed tests in the last <code>run</code>
+	 */
+	public int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Creates named daemon workers, so that a test that never finishes
+	 * cannot keep the virtual machine alive after the run is over.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tester-worker-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package tester;
 
+import java.io.IOException;
 import java.lang.reflect.*;
 import java.util.*;
 
@@ -26,24 +27,78 @@ import tester.Traversal;
 public class Printer {
 	//private static final Logger logger = Logger
 	//		.getLogger(Printer.class);
+
+	/** no limit on the depth or on the number of elements shown */
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	/**
+	 * the depth limit used by <code>print</code> and
+	 * <code>produceString</code> -- set by the <code>tester.maxDepth</code>
+	 * system property
+	 */
+	private static final int DEFAULT_MAX_DEPTH = 
+		limitProperty("tester.maxDepth");
+
+	/**
+	 * the element limit used by <code>print</code> and
+	 * <code>produceString</code> -- set by the
+	 * <code>tester.maxElements</code> system property
+	 */
+	private static final int DEFAULT_MAX_ELEMENTS = 
+		limitProperty("tester.maxElements");
+
+	/** the width of one level of indentation */
+	private static final String INDENT_STEP = "  ";
+
 	/** current indentation level for pretty-printing */
-	private static String INDENT = "  ";
+	private int indent = 1;
 
-	/** the resulting string produced */
-	private static StringBuilder result;
+	/** current nesting depth of the objects being printed */
+	private int depth = 0;
+
+	/** the deepest nesting of objects to show in full */
+	private int maxDepth;
+
+	/** the most elements of an array, <code>Iterable</code> or
+	 * <code>Map</code> to show */
+	private int maxElements;
 
 	/** object counter */
-	private static int counter;
+	private int counter = 0;
+
+	/**
+	 * the numbers given to the objects that are being printed, keyed by
+	 * object identity: if the same object is seen again, it is shown only by
+	 * its class name and number
+	 */
+	private IdentityHashMap<Object, Integer> seen = 
+		new IdentityHashMap<Object, Integer>();
 
-	/** dot counter */
-	private static int dots;
+	/**
+	 * A <code>Printer</code> that shows everything: every level of nesting
+	 * and every element of every dataset.
+	 */
+	public Printer() {
+		this(UNLIMITED, UNLIMITED);
+	}
 
 	/**
-	 * a hashmap of the hashcodes for the objects that are being printed: if the
-	 * same pair is compared again, the loop of printing stops and produces true
+	 * A <code>Printer</code> that truncates large values: objects nested
+	 * deeper than <code>maxDepth</code> are shown as <code>...</code>, and
+	 * only the first <code>maxElements</code> elements of arrays,
+	 * <code>Iterable</code>s and <code>Map</code>s are shown.
+	 * <P>
+	 * Each printing of an object should use its own <code>Printer</code>, so
+	 * that objects can be printed by several threads at the same time.
+	 * </P>
+	 * 
+	 * @param maxDepth the deepest nesting of objects to show in full
+	 * @param maxElements the most elements of a dataset to show
 	 */
-	private static HashMap<Integer, Integer> hashmap = 
-		new HashMap<Integer, Integer>();
+	public Printer(int maxDepth, int maxElements) {
+		this.maxDepth = maxDepth;
+		this.maxElements = maxElements;
+	}
 
 	/**
 	 * Print the values of the given object
@@ -51,11 +106,7 @@ public class Printer {
 	 * @param obj the object to display in the console
 	 */
 	public static void print(Object obj) {
-		hashmap.clear();
-		counter = 0;
-		// hashmap.put(obj.hashCode(), obj.hashCode());
-		result = new StringBuilder("");
-		System.out.println(makeString(obj));
+		System.out.println(produceString(obj));
 	}
 
 	/**
@@ -65,15 +116,68 @@ public class Printer {
 	 * @return a String representation of the values of the given object
 	 */
 	public static String produceString(Object obj) {
-		hashmap.clear();
-		counter = 0;
-		// hashmap.put(obj.hashCode(), obj.hashCode());
-		result = new StringBuilder("");
-		return makeString(obj);
+		StringBuilder sb = new StringBuilder();
+		try {
+			new Printer(DEFAULT_MAX_DEPTH, DEFAULT_MAX_ELEMENTS).append(obj,
+					sb);
+		} catch (IOException e) {
+			// a StringBuilder never throws IOException
+			throw new RuntimeException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write the representation of the values of the given object to the
+	 * given <code>Appendable</code> (<code>StringBuilder</code>,
+	 * <code>Writer</code>, <code>PrintStream</code>...) as it is produced,
+	 * without building the whole <code>String</code> first.
+	 * 
+	 * @param obj the object to represent
+	 * @param out where to write the representation
+	 * @throws IOException if writing to <code>out</code> fails
+	 */
+	public void append(Object obj, Appendable out) throws IOException {
+		this.seen.clear();
+		this.counter = 0;
+		this.indent = 1;
+		this.depth = 0;
+		makeString(obj, out);
+	}
+
+	/**
+	 * Read a limit from the system property with the given name.
+	 * 
+	 * @param name the name of the property
+	 * @return the positive limit given by the property, or
+	 *         <code>UNLIMITED</code>
+	 */
+	private static int limitProperty(String name) {
+		String value = System.getProperty(name);
+		if (value != null) {
+			try {
+				int limit = Integer.parseInt(value.trim());
+				if (limit > 0)
+					return limit;
+			} catch (NumberFormatException e) {
+				// no limit
+			}
+		}
+		return UNLIMITED;
 	}
 
 	/**
-	 * Produce a String representation of the given object.
+	 * Write the current indentation.
+	 * 
+	 * @param out where to write
+	 */
+	private void indent(Appendable out) throws IOException {
+		for (int i = 0; i < this.indent; i++)
+			out.append(INDENT_STEP);
+	}
+
+	/**
+	 * Write a String representation of the given object.
 	 * <P>
 	 * Show <code>String</code> 'as is'.
 	 * </P>
@@ -97,20 +201,21 @@ public class Printer {
 	 * </P>
 	 * 
 	 * @param obj the given object
+	 * @param out where to write the representation
 	 */
-	private static String makeString(Object obj) {
+	private void makeString(Object obj, Appendable out) throws IOException {
 
 		// if the object is null, we are done
-		if (obj == null)
-			return "null";
-
-		// if the object is a String already - show it
-		if (obj instanceof java.lang.String)
-			return result + " \"" + obj.toString() + "\"";
+		if (obj == null) {
+			out.append("null");
+			return;
+		}
 
-		// if the object is a Color object already - show it
-		if (obj instanceof java.awt.Color)
-			return result + " \"" + obj.toString() + "\"";
+		// if the object is a String or a Color object already - show it
+		if (obj instanceof java.lang.String || obj instanceof java.awt.Color) {
+			out.append(" \"").append(obj.toString()).append("\"");
+			return;
+		}
 
 		Class<?> objClass = obj.getClass();
 
@@ -118,72 +223,84 @@ public class Printer {
 		// or an instance of a wrapper class - use default toString method
 		if (objClass.isPrimitive()
 				|| Inspector.isWrapperClass(objClass.getName())) {
-			return result + obj.toString();
+			out.append(obj.toString());
+			return;
 		}
 
-		// if the class where the object is defined defined its own toString
-		// method, use the String it produces
-		String s = hasDefinedToString(obj);
-		if (!(s == null))
-			s = INDENT + s + "\n";
-		else
-			s = "\n";
-		// System.out.println("returned from hasDefinedString");
-
 		// check whether the object has been viewed before, if not,
-		// enter a record for this object into the hashmap
-		Integer i1 = obj.hashCode();
-		Integer i1match = hashmap.get(i1);
+		// give it the next number
+		Integer i1match = seen.get(obj);
 
 		if (i1match != null) {
 			// object has been displayed already - show class name and its id
-			return obj.getClass().getName() + ":" + i1match;
+			out.append(objClass.getName()).append(":").append(
+					i1match.toString());
+			return;
 		} else {
 			counter = counter + 1;
 			i1match = counter;
-			hashmap.put(i1, counter);
+			seen.put(obj, i1match);
 		}
 
 		/** handle the Canvas class in the draw teachpack */
-		if (Inspector.isOurCanvas(obj.getClass().getName()))
-			return result + obj.toString();
+		if (Inspector.isOurCanvas(objClass.getName())) {
+			out.append(obj.toString());
+			return;
+		}
+
+		// do not go any deeper than desired
+		if (this.depth >= this.maxDepth) {
+			out.append(" ...");
+			return;
+		}
+
+		this.depth = this.depth + 1;
 
 		// if the object is an Array -
 		// traverse over the data
 		if (obj instanceof Object[]) {
-			String result = "\n" + INDENT + " new Object[](){";
-			INDENT = INDENT + "  ";
-			for (int i = 0; i < Array.getLength(obj); i++) {
-				result = result + "\n" + INDENT
-						+ makeString(((Object[]) obj)[i]) + ",";
-			}
-			if (Array.getLength(obj) > 0) {
-				result = result.substring(0, result.length() - 1);
-			}
-			INDENT = INDENT.substring(0, INDENT.length() - 2);
-			return result = result + "}";
+			out.append("\n");
+			indent(out);
+			out.append(" new Object[](){");
+			this.indent = this.indent + 1;
+			makeIterableStrings(Arrays.asList((Object[]) obj).iterator(),
+					((Object[]) obj).length, out);
+			this.indent = this.indent - 1;
+			out.append("}");
+			this.depth = this.depth - 1;
+			return;
 		}
 
-		// for an instance of a declared class start with the class name
+		// if the class where the object is defined defined its own toString
+		// method, show the String it produces
+		String s = hasDefinedToString(obj);
+		if (!(s == null)) {
+			indent(out);
+			out.append(s);
+		}
+		out.append("\n");
 
-		String result = s + INDENT + " new " + objClass.getName() + ":"
-				+ i1match + "(";
-		// + ":" + counter + "(";
-		INDENT = INDENT + "  ";
-		String field;
+		// for an instance of a declared class start with the class name
+		indent(out);
+		out.append(" new ").append(objClass.getName()).append(":").append(
+				i1match.toString()).append("(");
+		this.indent = this.indent + 1;
 
 		// if the object is Iterable -
 		// traverse over the data generated by the iterator
 		if (obj instanceof Iterable) {
-			result = result + "){"
-					+ makeIterableStrings(((Iterable<?>) obj).iterator())
-					+ "}";
+			out.append("){");
+			int size = (obj instanceof Collection) ? ((Collection<?>) obj)
+					.size() : -1;
+			makeIterableStrings(((Iterable<?>) obj).iterator(), size, out);
+			out.append("}");
 		}
 
 		// instance of a Map: show the class and the key-value bindings
 		else if (obj instanceof Map) {
-			result = result + "){" + makeMapStrings((AbstractMap<?, ?>) obj)
-					+ "}";
+			out.append("){");
+			makeMapStrings((Map<?, ?>) obj, out);
+			out.append("}");
 		}
 
 		/** instance of a class that may have several defined fields */
@@ -199,15 +316,12 @@ public class Printer {
 			/** display all fields */
 			for (Field f : r.sampleDeclaredFields) {
 				try {
-					f.setAccessible(true);
-
-					if ((f.get(obj)) == null)
-						field = "this." + f.getName() + " = null";
-					else
-						field = "this." + f.getName() + " = "
-								+ makeString(f.get(obj));
+					Object value = f.get(obj);
 
-					result = result + "\n" + INDENT + field;
+					out.append("\n");
+					indent(out);
+					out.append("this.").append(f.getName()).append(" = ");
+					makeString(value, out);
 
 				} catch (IllegalAccessException e) {
 					System.out
@@ -218,57 +332,86 @@ public class Printer {
 				}
 			}
 			/** close parentheses and finish up */
-			result = result + ")";
+			out.append(")");
 		}
 
-		INDENT = INDENT.substring(0, INDENT.length() - 2);
-		return result;
+		this.indent = this.indent - 1;
+		this.depth = this.depth - 1;
 	}
 
 	/**
-	 * Produce a <code>String</code> that represents the data generated by the
-	 * given iterator -- comma separated.
+	 * Write the data generated by the given iterator -- comma separated,
+	 * each element on its own line.
 	 * 
 	 * @param it the iterator for generating data
-	 * @return the <code>String</code> that represents all generated data
+	 * @param size the number of elements the iterator generates, or -1 if
+	 *            it is not known
+	 * @param out where to write the data
 	 */
-	private static String makeIterableStrings(Iterator<?> it) {
-		String result = "";
+	private void makeIterableStrings(Iterator<?> it, int size, Appendable out)
+			throws IOException {
+		int shown = 0;
 		while (it.hasNext()) {
-			result = result + "\n" + INDENT + makeString(it.next()) + ",";
+			if (shown > 0)
+				out.append(",");
+			out.append("\n");
+			indent(out);
+			if (shown == this.maxElements) {
+				moreElements(size, shown, out);
+				return;
+			}
+			makeString(it.next(), out);
+			shown = shown + 1;
 		}
-		/** remove the last comma - if any data is present */
-		if (result.length() > 0)
-			return result.substring(0, result.length() - 1);
-		else
-			return result;
 	}
 
 	/**
-	 * Produce a <code>String</code> representation of the entries in the given
-	 * <code>Map</code>.
+	 * Write the entries in the given <code>Map</code> -- comma separated,
+	 * each key and value on its own line.
 	 * 
 	 * @param <K> the type of the keys in this <code>Map</code>
 	 * @param <V> the type of the values in this <code>Map</code>
-	 * @param hm the <code>Map</code> to represent as <code>String</code>
-	 * @return a <code>String</code> representation of the key and values in
-	 *         this <code>Map</code>
+	 * @param hm the <code>Map</code> to represent
+	 * @param out where to write the entries
 	 */
-	private static <K, V> String makeMapStrings(Map<K, V> hm) {
-		String result = "";
-		Set<Map.Entry<K, V>> data = new HashSet<Map.Entry<K, V>>(hm.entrySet());
-		
-		for (Map.Entry<K, V> entry : data) {
-			result = result + "\n" + INDENT + "(key: "
-					+ makeString(entry.getKey()) + "\n" + INDENT
-					+ " value: " + makeString(entry.getValue()) + "),";
+	private <K, V> void makeMapStrings(Map<K, V> hm, Appendable out)
+			throws IOException {
+		int shown = 0;
+		for (Map.Entry<K, V> entry : hm.entrySet()) {
+			if (shown > 0)
+				out.append(",");
+			out.append("\n");
+			indent(out);
+			if (shown == this.maxElements) {
+				moreElements(hm.size(), shown, out);
+				return;
+			}
+			out.append("(key: ");
+			makeString(entry.getKey(), out);
+			out.append("\n");
+			indent(out);
+			out.append(" value: ");
+			makeString(entry.getValue(), out);
+			out.append(")");
+			shown = shown + 1;
 		}
-		
-		/** remove the last comma - if any data is present */
-		if (result.length() > 0)
-			return result.substring(0, result.length() - 1);
+	}
+
+	/**
+	 * Write the note that marks the elements of a dataset left out.
+	 * 
+	 * @param size the number of elements in the dataset, or -1 if it is not
+	 *            known
+	 * @param shown the number of elements shown
+	 * @param out where to write the note
+	 */
+	private void moreElements(int size, int shown, Appendable out)
+			throws IOException {
+		if (size < 0)
+			out.append("...");
 		else
-			return result;
+			out.append("... ").append(Integer.toString(size - shown)).append(
+					" more");
 	}
 
 	/**
@@ -280,7 +423,7 @@ public class Printer {
 	 *         or the <code.String</code> generated by the <code>toString</code>
 	 *         method
 	 */
-	private static String hasDefinedToString(Object o) {
+	private String hasDefinedToString(Object o) {
 
 		Method tsm = null;
 
@@ -36,6 +36,17 @@ public class Reflector {
 	/** All public or protected fields declared for this object */
 	protected Field[] sampleDeclaredFields;
 
+	/**
+	 * The fields of every class examined so far, already made accessible.
+	 * The entry for a class goes away together with the class (and its
+	 * class loader), so the cache does not keep classes alive.
+	 */
+	private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+		protected Field[] computeValue(Class<?> c) {
+			return computeFields(c);
+		}
+	};
+
 	/**
 	 * Constructor: For the given instance get its <code>Class</code> and all
 	 * public declared fields.
@@ -44,7 +55,7 @@ public class Reflector {
 		if (!(sample == null)) {
 			this.sample = sample;
 			this.sampleClass = this.sample.getClass();
-			this.sampleDeclaredFields = this.getFields(sample);
+			this.sampleDeclaredFields = FIELDS.get(this.sampleClass);
 		}
 	}
 
@@ -62,20 +73,29 @@ public class Reflector {
 	 *         hierarchy - not including the java library classes
 	 */
 	protected ArrayList<Class<?>> getClasses(Object obj) {
-
-		// a list of class hierarchy for object obj
-		ArrayList<Class<?>> classTower = new ArrayList<Class<?>>();
-
 		// there is nothing in the tower for a null object
 		if (obj == null)
-			return classTower;
-		// add the class of obj to the class tower
-		Class<?> c = obj.getClass();
+			return new ArrayList<Class<?>>();
+		return getClasses(obj.getClass());
+	}
+
+	/**
+	 * Produce an <CODE>ArrayList</CODE> of all classes in the class hierarchy
+	 * of the given class, as in <code>getClasses(Object)</code>.
+	 * 
+	 * @param c the class of the object to examine
+	 * @return <code>ArrayList</code> of all classes in the given class
+	 *         hierarchy
+	 */
+	protected static ArrayList<Class<?>> getClasses(Class<?> c) {
+
+		// a list of class hierarchy for class c
+		ArrayList<Class<?>> classTower = new ArrayList<Class<?>>();
 
 		// Never read- Weston Jossey
 		// Package p = c.getPackage();
 
-		String cPackageName = getPackageName(c);
+		String cPackageName = packageNameOf(c);
 		classTower.add(c);
 
 		// get info about its super class
@@ -96,7 +116,7 @@ public class Reflector {
 		if (!((cPackageName.equals("Object Type"))
 				|| (cPackageName.equals("Wrapper Class"))
 				|| (cPackageName.equals("Libraries")))){
-			String scPackageName = getPackageName(sc);
+			String scPackageName = packageNameOf(sc);
 
 			// while the super class is in the same package, add to the
 			// classTower
@@ -104,7 +124,7 @@ public class Reflector {
 					&& !(sc.getName().equals("java.lang.Object"))) {
 
 				// repeated here, so in the next iteration access is safe
-				scPackageName = getPackageName(sc);
+				scPackageName = packageNameOf(sc);
 
 				classTower.add(0, sc);
 
@@ -118,6 +138,15 @@ public class Reflector {
 	}
 
 	protected String getPackageName(Class<?> c) {
+		return packageNameOf(c);
+	}
+
+	/**
+	 * The name of the package of the given class, or of the group of library
+	 * classes it belongs to, for <code>getClasses(Class)</code> -- which
+	 * computes the cached fields of a class, and so has no instance to ask.
+	 */
+	private static String packageNameOf(Class<?> c) {
 		String name = c.getName();
 
 		if (name.equals("java.lang.Object"))
@@ -157,8 +186,34 @@ public class Reflector {
 	 * @return an <CODE>Array</CODE> of fields for the given object
 	 */
 	protected Field[] getFields(Object obj) {
+		if (obj == null)
+			return new Field[0];
+		return FIELDS.get(obj.getClass());
+	}
+
+	/**
+	 * Produce the fields of the given class, as described in
+	 * <code>getFields</code>, from the cache. The array must not be modified.
+	 * 
+	 * @param c the class for which we look for fields
+	 * @return an <CODE>Array</CODE> of fields for the given class
+	 */
+	static Field[] fieldsOf(Class<?> c) {
+		return FIELDS.get(c);
+	}
+
+	/**
+	 * Produce the fields of the given class, as described in
+	 * <code>getFields</code>, and make them accessible. This is done only
+	 * once for every class: the result is kept in the <code>FIELDS</code>
+	 * cache and must not be modified.
+	 * 
+	 * @param c the class for which we look for fields
+	 * @return an <CODE>Array</CODE> of fields for the given class
+	 */
+	private static Field[] computeFields(Class<?> c) {
 		ArrayList<Field> allFields = new ArrayList<Field>();
-		ArrayList<Class<?>> classTower = this.getClasses(obj);
+		ArrayList<Class<?>> classTower = getClasses(c);
 		// Printout to observe the shown packages
 		
 		//if(logger.isDebugEnabled())
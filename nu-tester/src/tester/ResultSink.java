@@ -0,0 +1,56 @@
+package tester;
+
+import java.io.PrintStream;
+
+/**
+ * <P>
+ * Receives the reports of the tests run by a <CODE>{@link Tester Tester}</CODE>
+ * as the tests finish, and produces the test report at the end of the run.
+ * </P>
+ * <P>
+ * The <CODE>{@link BufferedResultSink BufferedResultSink}</CODE> (the
+ * default) keeps the reports until the end of the run, the
+ * <CODE>{@link StreamingResultSink StreamingResultSink}</CODE> writes each
+ * one out right away.
+ * </P>
+ * <P>
+ * The report of a test is only formatted when its text is asked for, so a
+ * sink should ask only for the text of the records it keeps or writes out
+ * -- and ask right away, as explained in
+ * <CODE>{@link TestRecord TestRecord}</CODE>.
+ * </P>
+ */
+public interface ResultSink {
+
+	/**
+	 * Prepare for a new run of tests.
+	 *
+	 * @param full true if the reports of the successful tests are wanted too
+	 */
+	public void start(boolean full);
+
+	/**
+	 * Record the outcome of a test that passed.
+	 *
+	 * @param record the outcome of the test
+	 */
+	public void success(TestRecord record);
+
+	/**
+	 * Record the outcome of a test that failed.
+	 *
+	 * @param record the outcome of the test
+	 */
+	public void failure(TestRecord record);
+
+	/**
+	 * Finish the run: produce the test report, starting with the given
+	 * summary of the number of tests run and failed.
+	 *
+	 * @param summary the summary of the run
+	 * @param full true for the report of all tests, false for the report of
+	 *        the failed tests only
+	 * @param out the stream that receives the test report
+	 */
+	public void finish(String summary, boolean full, PrintStream out);
+}
@@ -0,0 +1,97 @@
+package tester;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+/**
+ * <P>
+ * Writes the report of every test to a stream (the console or a file) as
+ * soon as the test finishes, so that no reports are kept in memory. At the
+ * end of the run only the summary is printed to the report stream of the
+ * <CODE>{@link Tester Tester}</CODE>.
+ * </P>
+ * <P>
+ * The reports of the successful tests are written only when a full report
+ * was asked for.
+ * </P>
+ */
+public class StreamingResultSink implements ResultSink {
+
+	/** the stream that receives the reports -- for a file, null between
+	 * two runs */
+	private PrintStream stream;
+
+	/** the file that receives the reports, or null for a given stream */
+	private final File file;
+
+	/** write the reports of the successful tests? */
+	private boolean full = true;
+
+	/**
+	 * Write the reports to the given stream.
+	 *
+	 * @param stream the stream that receives the reports
+	 */
+	public StreamingResultSink(PrintStream stream) {
+		this.stream = stream;
+		this.file = null;
+	}
+
+	/**
+	 * Write the reports to the given file, replacing its contents. The file
+	 * is closed when the run is finished, and the reports of the next run
+	 * are added at its end.
+	 *
+	 * @param file the file that receives the reports
+	 * @throws FileNotFoundException if the file cannot be written
+	 */
+	public StreamingResultSink(File file) throws FileNotFoundException {
+		this.stream = new PrintStream(new FileOutputStream(file), false);
+		this.file = file;
+	}
+
+	public void start(boolean full) {
+		if (this.stream == null) {
+			try {
+				this.stream = new PrintStream(
+						new FileOutputStream(this.file, true), false);
+			} catch (FileNotFoundException e) {
+				throw new IllegalStateException(
+						"Cannot write the test results to " + this.file, e);
+			}
+		}
+		this.full = full;
+		if (full)
+			this.stream.println("Full test results: \n-------------------");
+		else
+			this.stream.println("Test results: \n--------------");
+	}
+
+	public void success(TestRecord record) {
+		if (this.full)
+			this.stream.print("\n" + record);
+	}
+
+	public void failure(TestRecord record) {
+		this.stream.print("\n" + record);
+	}
+
+	public void finish(String summary, boolean full, PrintStream out) {
+		if (this.full)
+			this.stream.println("\n--- END OF FULL TEST RESULTS ---");
+		else
+			this.stream.println("\n--- END OF TEST RESULTS ---");
+
+		if (this.file != null) {
+			this.stream.close();
+			this.stream = null;
+			out.println(summary + "Test results written to "
+					+ this.file.getPath());
+		} else {
+			this.stream.flush();
+			out.println(summary);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package tester;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * The plan for comparing two instances of one class field by field, built
+ * once per class from the fields found by the
+ * <CODE>{@link Reflector Reflector}</CODE>.
+ * <P>
+ * The fields of primitive types are compared directly, with the typed
+ * accessors of <code>Field</code> (<code>getInt</code>,
+ * <code>getDouble</code>, ...), so their values are never boxed. Only the
+ * fields of reference types are left for the
+ * <CODE>{@link Inspector Inspector}</CODE> to compare recursively.
+ * </P>
+ */
+class StructuralComparator {
+
+	/** the kinds of primitive fields */
+	private static final int BOOLEAN = 0;
+	private static final int BYTE = 1;
+	private static final int CHAR = 2;
+	private static final int SHORT = 3;
+	private static final int INT = 4;
+	private static final int LONG = 5;
+	private static final int FLOAT = 6;
+	private static final int DOUBLE = 7;
+
+	/** the comparator for every class examined so far */
+	private static final ClassValue<StructuralComparator> COMPARATORS =
+		new ClassValue<StructuralComparator>() {
+		protected StructuralComparator computeValue(Class<?> c) {
+			return new StructuralComparator(Reflector.fieldsOf(c));
+		}
+	};
+
+	/** the fields of primitive types */
+	private final Field[] primitives;
+
+	/** the kind of each field in <code>primitives</code> */
+	private final int[] kinds;
+
+	/** the fields of reference types, in the order they were declared */
+	final Field[] references;
+
+	/**
+	 * Split the given fields into the primitive and the reference fields.
+	 *
+	 * @param fields the accessible fields of the class
+	 */
+	private StructuralComparator(Field[] fields) {
+		ArrayList<Field> prims = new ArrayList<Field>();
+		ArrayList<Field> refs = new ArrayList<Field>();
+		for (Field f : fields) {
+			if (f.getType().isPrimitive())
+				prims.add(f);
+			else
+				refs.add(f);
+		}
+		this.primitives = prims.toArray(new Field[prims.size()]);
+		this.references = refs.toArray(new Field[refs.size()]);
+		this.kinds = new int[this.primitives.length];
+		for (int i = 0; i < this.primitives.length; i++)
+			this.kinds[i] = kindOf(this.primitives[i].getType());
+	}
+
+	/**
+	 * Produce the comparator for the given class.
+	 *
+	 * @param c the class of the objects to compare
+	 * @return the comparator for the class
+	 */
+	static StructuralComparator forClass(Class<?> c) {
+		return COMPARATORS.get(c);
+	}
+
+	/**
+	 * Produce the kind of the given primitive type.
+	 */
+	private static int kindOf(Class<?> type) {
+		if (type == boolean.class)
+			return BOOLEAN;
+		else if (type == byte.class)
+			return BYTE;
+		else if (type == char.class)
+			return CHAR;
+		else if (type == short.class)
+			return SHORT;
+		else if (type == int.class)
+			return INT;
+		else if (type == long.class)
+			return LONG;
+		else if (type == float.class)
+			return FLOAT;
+		else
+			return DOUBLE;
+	}
+
+	/**
+	 * Find the first primitive field in which the two given instances of
+	 * this class have different values. Inexact numbers are compared with
+	 * the tolerance of the given <code>Inspector</code>.
+	 *
+	 * @param obj1 the first instance
+	 * @param obj2 the second instance
+	 * @param inspector the <code>Inspector</code> doing the comparison
+	 * @return the field with different values, or null if all primitive
+	 *         fields have the same values
+	 * @throws IllegalAccessException if a field cannot be read
+	 */
+	Field differentPrimitive(Object obj1, Object obj2, Inspector inspector)
+			throws IllegalAccessException {
+		for (int i = 0; i < this.primitives.length; i++) {
+			Field f = this.primitives[i];
+			boolean same;
+			switch (this.kinds[i]) {
+			case BOOLEAN:
+				same = f.getBoolean(obj1) == f.getBoolean(obj2);
+				break;
+			case BYTE:
+				same = f.getByte(obj1) == f.getByte(obj2);
+				break;
+			case CHAR:
+				same = f.getChar(obj1) == f.getChar(obj2);
+				break;
+			case SHORT:
+				same = f.getShort(obj1) == f.getShort(obj2);
+				break;
+			case INT:
+				same = f.getInt(obj1) == f.getInt(obj2);
+				break;
+			case LONG:
+				same = f.getLong(obj1) == f.getLong(obj2);
+				break;
+			case FLOAT:
+				same = inspector.isSameFloat(f.getFloat(obj1), f
+						.getFloat(obj2));
+				break;
+			default:
+				same = inspector.isSameDouble(f.getDouble(obj1), f
+						.getDouble(obj2));
+			}
+			if (!same)
+				return f;
+		}
+		return null;
+	}
+}
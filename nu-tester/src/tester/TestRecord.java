@@ -0,0 +1,152 @@
+package tester;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * <P>
+ * The outcome of one test, as handed to a
+ * <CODE>{@link ResultSink ResultSink}</CODE>: whether the test passed, its
+ * number and name, the values it compared and, for a failed test, the stack
+ * trace at the point of failure.
+ * </P>
+ * <P>
+ * Nothing is formatted until the text of the record is asked for with
+ * <code>toString</code>, so the records of the tests that nobody reports
+ * (typically the successful tests, when only the failures are reported) cost
+ * little more than their allocation. The values are printed when the text is
+ * first produced, so a sink that keeps a record should ask for its text right
+ * away, before the test goes on to change the values.
+ * </P>
+ */
+public class TestRecord {
+
+	/** did the test pass? */
+	private final boolean success;
+
+	/** the first line of the report, or null for a report given as text */
+	private final String heading;
+
+	/** the name of the test, or the whole text of the report */
+	private final String name;
+
+	/** the stack trace at the point of failure, or null */
+	private final ErrorReport trace;
+
+	/** the labels of the values compared by the test */
+	private final String[] labels;
+
+	/** the values compared by the test */
+	private final Object[] values;
+
+	/** the text of the report, once it has been produced */
+	private String text = null;
+
+	/**
+	 * Record a test whose report is the given text.
+	 *
+	 * @param success did the test pass?
+	 * @param text the report of the test
+	 */
+	TestRecord(boolean success, String text) {
+		this(success, null, text, null, new String[0], new Object[0]);
+	}
+
+	/**
+	 * Record a test that compared the given values.
+	 *
+	 * @param success did the test pass?
+	 * @param heading the first line of the report
+	 * @param name the name of the test
+	 * @param trace the stack trace at the point of failure, or null
+	 * @param labels the labels of the values
+	 * @param values the values compared by the test
+	 */
+	TestRecord(boolean success, String heading, String name,
+			ErrorReport trace, String[] labels, Object[] values) {
+		this.success = success;
+		this.heading = heading;
+		this.name = name;
+		this.trace = trace;
+		this.labels = labels;
+		this.values = values;
+	}
+
+	/**
+	 * @return true if the test passed
+	 */
+	public boolean isSuccess() {
+		return this.success;
+	}
+
+	/**
+	 * Produce the report of the test, formatting it the first time.
+	 *
+	 * @return the report of the test
+	 */
+	public String toString() {
+		if (this.text == null)
+			this.text = this.format();
+		return this.text;
+	}
+
+	/**
+	 * Format the report of the test.
+	 */
+	private String format() {
+		if (this.heading == null)
+			return this.name;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.heading).append('\n').append(this.name).append('\n');
+		if (this.trace != null)
+			sb.append(formatTrace(this.trace)).append('\n');
+		for (int i = 0; i < this.values.length; i++)
+			sb.append(this.labels[i]).append(Printer.produceString(this.values[i]))
+					.append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Produce a formatted String that represent the relevant entries of the
+	 * <CODE>StackTrace</CODE> that provides a link to the test case that
+	 * produced the error.
+	 *
+	 * @param e the exception created at the point of failure
+	 * @return a formatted String representation of the relevant stack trace
+	 */
+	private static String formatTrace(ErrorReport e) {
+		// the stack trace elements are only produced now
+		StackTraceElement[] ste = e.getStackTrace();
+
+		// copy only the relevant entries
+		StackTraceElement[] tmpSTE = new StackTraceElement[ste.length];
+		int ui = 0; // index for the stripped stack trace
+		for (int i = 0; i < ste.length; i++) {
+			String cname = ste[i].getClassName();
+			if (!((cname.startsWith("tester."))
+					|| (cname.startsWith("sun.reflect"))
+					|| (cname.startsWith("jdk.internal.reflect"))
+					|| (cname.startsWith("java.lang"))
+					|| (cname.startsWith("java.util.concurrent"))
+					|| (cname.startsWith("bluej")) || (cname
+					.startsWith("__SHELL")))) {
+				tmpSTE[ui] = ste[i];
+				ui = ui + 1;
+			}
+		}
+
+		// we cannot have null entries at the end
+		StackTraceElement[] userSTE = new StackTraceElement[ui];
+		System.arraycopy(tmpSTE, 0, userSTE, 0, ui);
+
+		// now set the stack trace so it can be converted to a String
+		e.setStackTrace(userSTE);
+
+		StringWriter writer = new StringWriter();
+		PrintWriter printwriter = new PrintWriter(writer);
+		e.printStackTrace(printwriter);
+
+		return writer.toString();
+	}
+}
@@ -4,6 +4,8 @@ package tester;
 import java.lang.reflect.*;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 //import org.apache.log4j.Logger;
 
@@ -34,10 +36,27 @@ import java.io.*;
 public class Tester {
     // private static final Logger logger = Logger.getLogger(Tester.class);
 
-    /** A <code>String</code> that records the results for all failed tests */
+    /** The sink that records the results of the tests */
+    protected ResultSink results = new BufferedResultSink();
+
+    /**
+     * A <code>String</code> that records the results for all failed tests,
+     * as kept by a <code>BufferedResultSink</code>: it is set at the end of
+     * every run, before the test report
+     * 
+     * @deprecated the results are recorded by the <code>ResultSink</code>
+     */
+    @Deprecated
     protected String testResults = "Test results: \n--------------\n";
 
-    /** A <code>String</code> that records all test results */
+    /**
+     * A <code>String</code> that records all test results, as kept by a
+     * <code>BufferedResultSink</code>: it is set at the end of every run,
+     * before the test report
+     * 
+     * @deprecated the results are recorded by the <code>ResultSink</code>
+     */
+    @Deprecated
     protected StringBuilder fullTestResults = new StringBuilder(
             "Full test results: " + "\n-------------------\n");
 
@@ -53,6 +72,12 @@ public class Tester {
     /** An instance of the Inspector to use throughout */
     protected Inspector inspector = new Inspector();
 
+    /** The stream that receives the test reports */
+    protected PrintStream out = System.out;
+
+    /** The stream that receives the stack traces of failed tests */
+    protected PrintStream err = System.err;
+
     /** start with no tests and no failures */
     protected Tester() {
         this.numberOfTests = 0;
@@ -60,6 +85,21 @@ public class Tester {
         this.testname = "";
     }
 
+    /**
+     * Start with no tests and no failures, reporting to the given streams
+     * rather than to the console.
+     * 
+     * @param out
+     *            the stream that receives the test reports
+     * @param err
+     *            the stream that receives the stack traces of failed tests
+     */
+    protected Tester(PrintStream out, PrintStream err) {
+        this();
+        this.out = out;
+        this.err = err;
+    }
+
     /*--------------------------------------------------------------------*/
     /*------------- TEST SELECTION AND REPORTING SECTION -----------------*/
     /*--------------------------------------------------------------------*/
@@ -130,24 +170,21 @@ public class Tester {
      */
     protected void runAnyTests(Object f, boolean full, boolean printall) {
         this.numberOfTests = 0; // number of tests run
+        this.results.start(full);
         boolean failed = false; // any tests failed?
 
         if (printall) {
             // pretty-print the 'Examples' class data when desired
-            System.out.println(f.getClass().getName() + ":\n---------------");
-            System.out.println(Printer.produceString(f) + "\n---------------");
+            this.out.println(f.getClass().getName() + ":\n---------------");
+            this.out.println(Printer.produceString(f) + "\n---------------");
         }
 
         // check if the 'Examples' class extends 'IExamples'
         // if yes, run its 'tests' method
-        Class<?>[] interfaces = f.getClass().getInterfaces();
-        boolean foundInterface = false;
+        boolean foundInterface = planFor(f.getClass()).examples;
 
-        for (Class<?> c : interfaces) {
-            if (c.getName().equals("tester.IExamples")) {
-                runTests((IExamples) f);
-                foundInterface = true;
-            }
+        if (foundInterface) {
+            runTests((IExamples) f);
         }
 
         // otherwise use reflection to find all test methods
@@ -180,14 +217,15 @@ public class Tester {
                 // catch all exceptions
                 catch (Throwable e) {
                     this.errors = this.errors + 1;
-                    System.out.println("Threw exception during test "
+                    this.out.println("Threw exception during test "
                             + this.numberOfTests);
-                    e.printStackTrace();
+                    e.printStackTrace(this.err);
                     failed = true;
                 }
 
                 // print the test results at the end
                 finally {
+                    this.copyResults();
                     if (full)
                         this.fullTestReport();
                     else
@@ -232,20 +270,22 @@ public class Tester {
      */
     protected void runTests(IExamples f, boolean full) {
         this.numberOfTests = 0;
+        this.results.start(full);
         boolean failed = false;
 
-        System.out.println("Examples class:\n---------------");
-        System.out.println(Printer.produceString(f) + "\n---------------");
+        this.out.println("Examples class:\n---------------");
+        this.out.println(Printer.produceString(f) + "\n---------------");
 
         try {
             f.tests(this);
         } catch (Throwable e) { // catch all exceptions
             this.errors = this.errors + 1;
-            System.out.println("Threw exception during test "
+            this.out.println("Threw exception during test "
                     + this.numberOfTests);
-            e.printStackTrace();
+            e.printStackTrace(this.err);
             failed = true;
         } finally {
+            this.copyResults();
             if (full)
                 this.fullTestReport();
             else
@@ -274,6 +314,20 @@ public class Tester {
     /*------------- TEST EVALUATION SECTION: Public API ------------------*/
     /*--------------------------------------------------------------------*/
 
+    /*--------------- Recording the results of the tests -----------------*/
+
+    /**
+     * Set the sink that records the results of the tests, for example a
+     * <code>StreamingResultSink</code> that writes them to a file as the
+     * tests finish.
+     * 
+     * @param results
+     *            the sink for the results of the tests
+     */
+    public void setResultSink(ResultSink results) {
+        this.results = results;
+    }
+
     /*--------------- Tolerance for comparing inexact numbers  -----------*/
 
     /**
@@ -283,10 +337,26 @@ public class Tester {
      *            the desired tolerance
      */
     public boolean setTolerance(double epsilon) {
-        Inspector.TOLERANCE = epsilon;
+        this.inspector.tolerance = epsilon;
         return epsilon > 0;
     }
 
+    /*---------------- Comparing sets without order ----------------------*/
+
+    /**
+     * Choose whether two <code>Set</code>s are the same when they generate
+     * the same elements in the same order (the default), or when every
+     * element of one set has a matching element in the other, in any order.
+     * Without order, the keys of two <code>Map</code>s are also matched by
+     * extensional equality when <code>equals</code> does not find them.
+     * 
+     * @param unordered
+     *            true to compare sets without regard to order
+     */
+    public void setUnorderedSets(boolean unordered) {
+        this.inspector.unorderedSets = unordered;
+    }
+
     /*-------- Delegate the 'same' method to the Inspector class ---------*/
 
     /**
@@ -436,8 +506,13 @@ public class Tester {
      */
     public <T> boolean checkExpect(T actual, T expected, String testname) {
         this.testname = testname;
-        return this.report(inspector.isSame(actual, expected), testname,
-                actual, expected);
+        boolean same = inspector.isSame(actual, expected);
+
+        // show where the values start to differ, if it is not at the top
+        if (!same && inspector.getMismatchPath().length() > 0)
+            testname = testname + "\nfirst difference at: "
+                    + inspector.getMismatchPath();
+        return this.report(same, testname, actual, expected);
     }
 
     /**
@@ -584,13 +659,11 @@ public class Tester {
         String exceptName = exceptClass.getName();
         String exceptMessage = e.getMessage();
         try {
-            // find the method
+            // find the method (protected and private methods are
+            // accessible)
             Method meth = this
                     .findMethod(object, method, parameters, testname);
 
-            // allow access to protected and private methods
-            meth.setAccessible(true);
-
             Object result = meth.invoke(object, args);
 
             // if the invocation succeeds, the test fails because
@@ -782,9 +855,7 @@ public class Tester {
                                 + object.getClass().getName() + "." + method
                                 + parlist, expected);
             } else {
-                // allow access to protected and private methods
-                meth.setAccessible(true);
-
+                // protected and private methods are already accessible
                 String testmessage = testname + "\n"
                         + Printer.produceString(object) + "\n invoked method "
                         + method + " in the class "
@@ -806,7 +877,7 @@ public class Tester {
             boolean result = this.report(false, testmessage
                     + "\nthrew an excception ", object, Printer
                     .produceString(args));
-            exception.printStackTrace();
+            exception.printStackTrace(this.err);
             return result;
         }
     }
@@ -1268,7 +1339,12 @@ public class Tester {
     /**
      * Find the method with the given name for the type of the given object,
      * that consumes parameters of the given types. Account for any autoboxing
-     * of primitive types
+     * of primitive types. A method whose parameters match the given types
+     * exactly (or are their primitive types) is preferred; otherwise the most
+     * specific method that accepts arguments of the given types, allowing for
+     * subclasses and for unboxing followed by widening, is chosen. The method
+     * found (or not found) for a class, name and parameter types is
+     * remembered, so calling the same method again costs a map lookup.
      * 
      * @param object
      *            The object expected to invoke the method
@@ -1276,12 +1352,36 @@ public class Tester {
      *            The name of the method to invoke
      * @param parameters
      *            The parameter types for the method invocation
-     * @return The instance of the declared method
+     * @return The instance of the declared method, already accessible, or
+     *         null if there is none
      */
     private <T> Method findMethod(T object, String method,
             Class<?>[] parameters, String testname) {
 
-        Method[] allMethods = findAllMethods(object.getClass());
+        ConcurrentMap<MethodKey, Object> known = METHODS.get(object
+                .getClass());
+        MethodKey key = new MethodKey(method, parameters);
+        Object found = known.get(key);
+        if (found == null) {
+            found = resolveMethod(object.getClass(), method, parameters);
+            if (found == null)
+                found = NO_METHOD;
+            known.putIfAbsent(key, found);
+        }
+        return (found == NO_METHOD) ? null : (Method) found;
+    }
+
+    /**
+     * Look for the method with the given name for the given class, that
+     * consumes parameters of the given types, as described for
+     * <code>findMethod</code>.
+     * 
+     * @return The instance of the declared method, or null if there is none
+     */
+    private Method resolveMethod(Class<?> c, String method,
+            Class<?>[] parameters) {
+
+        Method[] allMethods = findAllMethods(c);
         ArrayList<Method> allNamed = new ArrayList<Method>();
 
         // make a list of all methods with the given name
@@ -1290,22 +1390,23 @@ public class Tester {
                 allNamed.add(elt);
 
         // / add the test to compare parameters -- invocation with int works!!
-        if (allNamed.size() > 0) {
-            for (Method m : allNamed) {
-                if (this.matchParams(m.getParameterTypes(), parameters))
-                    return m;
-            }
-            // no methods matched the given parameter list
-            testname = testname + "\nNo method with the name " + method
-                    + " had a matching argument list\n";
-            return null;
+        for (Method m : allNamed) {
+            if (this.matchParams(m.getParameterTypes(), parameters))
+                return m;
         }
-        // no methods found with the given name
-        else {
-            testname = testname + "\nNo method with the name " + method
-                    + " found\n";
-            return null;
+
+        // no exact match: find the most specific method that still accepts
+        // the arguments
+        Method best = null;
+        for (Method m : allNamed) {
+            if (acceptsParams(m.getParameterTypes(), parameters)
+                    && (best == null || acceptsParams(best.getParameterTypes(),
+                            m.getParameterTypes())
+                            && !acceptsParams(m.getParameterTypes(),
+                                    best.getParameterTypes())))
+                best = m;
         }
+        return best;
     }
 
     /**
@@ -1321,25 +1422,10 @@ public class Tester {
      */
     private <T> ArrayList<Method> findTestMethods(T object, String testname) {
 
-        Method[] allMethods = findAllMethods(object.getClass());
-        ArrayList<Method> allNamed = new ArrayList<Method>();
-        Class<?>[] testerParam = new Class[] { this.getClass() };
+        ArrayList<Method> allNamed = new ArrayList<Method>(
+                Arrays.asList(planFor(object.getClass()).tests));
 
-        // make a list of all methods with the given name
-        for (Method method : allMethods) {
-
-            if (method.getName().startsWith("test")
-                    && this.matchParams(method.getParameterTypes(),
-                            testerParam)) {
-                allNamed.add(method);
-                method.setAccessible(true);
-            } else if (method.getAnnotation(TestMethod.class) != null) {
-                allNamed.add(method);
-                method.setAccessible(true);
-            }
-        }
-
-        System.out.println("Found " + allNamed.size() + " test methods");
+        this.out.println("Found " + allNamed.size() + " test methods");
 
         if (allNamed.size() > 0) {
             // found test methods that matched the given parameter list
@@ -1356,38 +1442,162 @@ public class Tester {
         }
     }
 
+    /**
+     * The methods of every class examined so far, including those of its
+     * super classes up to java.lang.Object, already made accessible. The
+     * methods of a class are its declared methods followed by the (cached)
+     * methods of its super class. The entry for a class goes away together
+     * with the class, so classes reloaded by an IDE are examined again.
+     */
+    private static final ClassValue<Method[]> ALL_METHODS = new ClassValue<Method[]>() {
+        protected Method[] computeValue(Class<?> c) {
+            Method[] declared = c.getDeclaredMethods();
+            for (Method m : declared)
+                m.setAccessible(true);
+
+            Class<?> superclass = c.getSuperclass();
+            if (superclass == null || superclass == Object.class)
+                return declared;
+            Method[] inherited = ALL_METHODS.get(superclass);
+            Method[] all = Arrays.copyOf(declared, declared.length
+                    + inherited.length);
+            System.arraycopy(inherited, 0, all, declared.length,
+                    inherited.length);
+            return all;
+        }
+    };
+
+    /**
+     * The test plans of every 'Examples' class run so far, by the class of
+     * the <code>Tester</code> running them (the test methods consume it).
+     */
+    private static final ClassValue<ConcurrentMap<Class<?>, TestPlan>> PLANS = new ClassValue<ConcurrentMap<Class<?>, TestPlan>>() {
+        protected ConcurrentMap<Class<?>, TestPlan> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<Class<?>, TestPlan>();
+        }
+    };
+
+    /**
+     * The methods found by <code>findMethod</code> so far for every class, by
+     * name and parameter types: <code>NO_METHOD</code> where there was none.
+     */
+    private static final ClassValue<ConcurrentMap<MethodKey, Object>> METHODS = new ClassValue<ConcurrentMap<MethodKey, Object>>() {
+        protected ConcurrentMap<MethodKey, Object> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<MethodKey, Object>();
+        }
+    };
+
+    /** marks a method that was looked for and not found */
+    private static final Object NO_METHOD = new Object();
+
+    /** the primitive type of each wrapper class */
+    private static final Map<Class<?>, Class<?>> PRIMITIVES = new HashMap<Class<?>, Class<?>>();
+    static {
+        PRIMITIVES.put(Boolean.class, boolean.class);
+        PRIMITIVES.put(Byte.class, byte.class);
+        PRIMITIVES.put(Character.class, char.class);
+        PRIMITIVES.put(Short.class, short.class);
+        PRIMITIVES.put(Integer.class, int.class);
+        PRIMITIVES.put(Long.class, long.class);
+        PRIMITIVES.put(Float.class, float.class);
+        PRIMITIVES.put(Double.class, double.class);
+    }
+
+    /**
+     * The name and parameter types a method was looked for by.
+     */
+    private static class MethodKey {
+        private final String name;
+        private final Class<?>[] parameters;
+        private final int hash;
+
+        MethodKey(String name, Class<?>[] parameters) {
+            this.name = name;
+            this.parameters = parameters.clone();
+            this.hash = 31 * name.hashCode() + Arrays.hashCode(parameters);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof MethodKey))
+                return false;
+            MethodKey key = (MethodKey) o;
+            return this.name.equals(key.name)
+                    && Arrays.equals(this.parameters, key.parameters);
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * How to run the tests of an 'Examples' class, worked out once per class
+     * so that running the tests again needs no more reflection.
+     */
+    private static class TestPlan {
+        /** does the class implement <code>IExamples</code> itself? */
+        final boolean examples;
+
+        /** the test methods, accessible, in the order they are run */
+        final Method[] tests;
+
+        TestPlan(boolean examples, Method[] tests) {
+            this.examples = examples;
+            this.tests = tests;
+        }
+    }
+
+    /**
+     * Produce the test plan of the given 'Examples' class for this kind of
+     * <code>Tester</code>, working it out the first time.
+     * 
+     * @param c
+     *            the class that defines the tests
+     * @return the test plan
+     */
+    private TestPlan planFor(Class<?> c) {
+        ConcurrentMap<Class<?>, TestPlan> plans = PLANS.get(c);
+        TestPlan plan = plans.get(this.getClass());
+        if (plan == null) {
+            boolean examples = false;
+            for (Class<?> intf : c.getInterfaces()) {
+                if (intf.getName().equals("tester.IExamples"))
+                    examples = true;
+            }
+
+            ArrayList<Method> tests = new ArrayList<Method>();
+            Class<?>[] testerParam = new Class[] { this.getClass() };
+            for (Method method : findAllMethods(c)) {
+                if (method.getName().startsWith("test")
+                        && this.matchParams(method.getParameterTypes(),
+                                testerParam))
+                    tests.add(method);
+                else if (method.getAnnotation(TestMethod.class) != null)
+                    tests.add(method);
+            }
+
+            plan = new TestPlan(examples, tests.toArray(new Method[0]));
+            TestPlan known = plans.putIfAbsent(this.getClass(), plan);
+            if (known != null)
+                plan = known;
+        }
+        return plan;
+    }
+
     /**
      * Finds all of the methods for a particular class, including those that
      * are part of a super class. This will stop when it hits java.lang.Object.
-     * While traversing the methods, it also marks all of the methods to
-     * accessible so that we can utilize them elsewhere in our code. This
-     * should be abstracted out to a custom reflector (similar to what we
-     * already have) in the future.
+     * All of the methods are accessible, so that we can utilize them elsewhere
+     * in our code. The methods of each class are only collected once.
      * 
      * @param c
      *            class to collect methods from
-     * @return the resulting array of methods found
+     * @return the resulting array of methods found -- not to be changed
      */
     private Method[] findAllMethods(Class<?> c) {
-        Class<?> classToSurvey = c;
-
-        ArrayList<Method> list = new ArrayList<Method>();
-        // While we have a class to examine
-        while (classToSurvey != null && classToSurvey != Object.class) {
-            // Get all public and private methods
-            Method[] allMethods = classToSurvey.getDeclaredMethods();
-            // For each method, set it to accessible and add it to the list
-            for (Method m : allMethods) {
-                m.setAccessible(true);
-                list.add(m);
-            }
-
-            // Get the super class and loop
-            classToSurvey = classToSurvey.getSuperclass();
-        }
-
-        // Convert the ArrayList to an array and return
-        return list.toArray(new Method[0]);
+        if (c == null || c == Object.class)
+            return new Method[0];
+        return ALL_METHODS.get(c);
     }
 
     /**
@@ -1415,16 +1625,66 @@ public class Tester {
                     if (Inspector.isWrapperClass(def)) {
                         if (!isWrapperMatch(in, def))
                             return false;
-                        else
-                            return true;
-                    }
-                    return false;
+                    } else
+                        return false;
                 }
             }
         }
         return true;
     }
 
+    /**
+     * See if a method with the parameter types <CODE>parDefined</CODE> can be
+     * invoked with arguments of the types <CODE>parInput</CODE>: every
+     * argument is an instance of its parameter type, or a wrapper whose value
+     * unboxes and widens to the primitive parameter type (as
+     * <CODE>Method.invoke</CODE> allows).
+     * 
+     * @param parDefined
+     *            the parameter types of the method
+     * @param parInput
+     *            the types of the arguments
+     * @return true if the arguments can be passed to the method
+     */
+    private static boolean acceptsParams(Class<?>[] parDefined,
+            Class<?>[] parInput) {
+        if (parDefined.length != parInput.length)
+            return false;
+        for (int i = 0; i < parDefined.length; i++) {
+            Class<?> def = parDefined[i];
+            Class<?> in = parInput[i];
+            if (def.isPrimitive()) {
+                Class<?> prim = in.isPrimitive() ? in : PRIMITIVES.get(in);
+                if (prim == null || !widens(prim, def))
+                    return false;
+            } else if (!def.isAssignableFrom(in))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does a value of the primitive type <CODE>from</CODE> convert to the
+     * primitive type <CODE>to</CODE> by identity or a widening conversion?
+     */
+    private static boolean widens(Class<?> from, Class<?> to) {
+        if (from == to)
+            return true;
+        if (to == double.class)
+            return from != boolean.class;
+        if (to == float.class)
+            return from != boolean.class && from != double.class;
+        if (to == long.class)
+            return from == int.class || from == short.class
+                    || from == char.class || from == byte.class;
+        if (to == int.class)
+            return from == short.class || from == char.class
+                    || from == byte.class;
+        if (to == short.class)
+            return from == byte.class;
+        return false;
+    }
+
     /**
      * Check whether the primitive type with the name <CODE>in</CODE> matches
      * the wrapper type with the name <CODE>def</CODE>.
@@ -1462,6 +1722,14 @@ public class Tester {
     /*--------------------- TEST REPORTING SECTION -----------------------*/
     /*--------------------------------------------------------------------*/
 
+    /** the labels of the values in the report of a test */
+    private static final String[] EXPECT_LABELS = new String[] {
+            "actual:     ", "expected:   " };
+
+    /** the labels of the values in the report of a range test */
+    private static final String[] RANGE_LABELS = new String[] {
+            "actual:     ", "low:   ", "high:   " };
+
     /**
      * General contractor to report test results
      * 
@@ -1477,14 +1745,15 @@ public class Tester {
     private boolean report(boolean success, String testname, Object actual,
             Object expected) {
         if (success)
-            return this.reportSuccess(testname, actual, expected);
-        else {
-            // get the relevant stack trace for this test case
-            String trace = this.getStackTrace();
-            return this
-                    .reportErrors(testname + "\n" + trace, actual, expected);
-
-        }
+            return this.addSuccess(new TestRecord(true,
+                    "Success in the test number " + (numberOfTests + 1),
+                    testname, null, EXPECT_LABELS, new Object[] { actual,
+                            expected }));
+        else
+            return this.addError(new TestRecord(false,
+                    "Error in test number " + (numberOfTests + 1), testname,
+                    this.captureTrace(), EXPECT_LABELS, new Object[] {
+                            actual, expected }));
     }
 
     /**
@@ -1504,13 +1773,15 @@ public class Tester {
     private boolean report(boolean success, String testname, Object actual,
             Object low, Object high) {
         if (success)
-            return this.reportSuccess(testname, actual, low, high);
-        else {
-            // get the relevant stack trace for this test case
-            String trace = this.getStackTrace();
-            return this.reportErrors(testname + "\n" + trace, actual, low,
-                    high);
-        }
+            return this.addSuccess(new TestRecord(true,
+                    "Success in the range test number " + (numberOfTests + 1),
+                    testname, null, RANGE_LABELS, new Object[] { actual, low,
+                            high }));
+        else
+            return this.addError(new TestRecord(false,
+                    "Error in range test number " + (numberOfTests + 1),
+                    testname, this.captureTrace(), RANGE_LABELS,
+                    new Object[] { actual, low, high }));
     }
 
     /**
@@ -1527,153 +1798,58 @@ public class Tester {
             Object expected) {
 
         // add test report to the error report and the full test report
-        return this.addError("Error in test number " + (numberOfTests + 1)
-                + "\n" + testname + "\n" + "actual:     "
-                + Printer.produceString(actual) + "\n" + "expected:   "
-                + Printer.produceString(expected) + "\n");
-    }
-
-    /**
-     * Add a test to the list of failed tests
-     * 
-     * @param testname
-     *            The name of the failed range test
-     * @param actual
-     *            The computed value of the test
-     * @param low
-     *            The low (inclusive) value of the range
-     * @param high
-     *            The high (exclusive) value of the range
-     */
-    private boolean reportErrors(String testname, Object actual, Object low,
-            Object high) {
-
-        // add test report to the error report and the full test report
-        return this.addError("Error in range test number "
-                + (numberOfTests + 1) + "\n" + testname + "\n"
-                + "actual:     " + Printer.produceString(actual) + "\n"
-                + "low:   " + Printer.produceString(low) + "\n" + "high:   "
-                + Printer.produceString(high) + "\n");
-    }
-
-    /**
-     * Produce a formatted String that represent the relevant entries of the
-     * <CODE>StackTrace</CODE> that provides a link to the test case that
-     * produced the error.
-     * 
-     * @return a formatted String representation of the relevant stack trace
-     */
-    private String getStackTrace() {
-        try {
-            // force an exception so you can inspect the stack trace
-            throw new ErrorReport("Error trace:");
-        } catch (ErrorReport e) { // catch the exception
-            // record the original stack trace
-            StackTraceElement[] ste = e.getStackTrace();
-
-            // copy only the relevant entries
-            int length = Array.getLength(ste);
-            StackTraceElement[] tmpSTE = new StackTraceElement[length];
-            int ui = 0; // index for the stripped stack trace
-            for (int i = 3; i < length; i++) {
-                String cname = ste[i].getClassName();
-                if (!((cname.startsWith("tester."))
-                        || (cname.startsWith("sun.reflect"))
-                        || (cname.startsWith("java.lang"))
-                        || (cname.startsWith("bluej")) || (cname
-                        .startsWith("__SHELL")))) {
-                    tmpSTE[ui] = ste[i];
-                    ui = ui + 1;
-                }
-            }
-
-            // we cannot have null entries at the end
-            StackTraceElement[] userSTE = new StackTraceElement[ui];
-            for (int i = 0; i < ui; i++) {
-                userSTE[i] = tmpSTE[i];
-            }
-
-            // now set the stack trace so it can be converted to a String
-            e.setStackTrace(userSTE);
-
-            StringWriter writer = new StringWriter();
-            PrintWriter printwriter = new PrintWriter(writer);
-            e.printStackTrace(printwriter);
-
-            return writer.toString();
-        }
+        return this.addError(new TestRecord(false, "Error in test number "
+                + (numberOfTests + 1), testname, null, EXPECT_LABELS,
+                new Object[] { actual, expected }));
     }
 
     /**
-     * Add a test to the list of successful tests
+     * Record the stack trace that provides a link to the test case that
+     * produced the error. Only the frames are captured here: they are
+     * filtered and formatted if and when the report of the test is produced.
      * 
-     * @param testname
-     *            The name of the successful test
-     * @param actual
-     *            The computed value of the test
-     * @param expected
-     *            The expected value of the test
+     * @return an exception that holds the current stack trace
      */
-    private boolean reportSuccess(String testname, Object actual,
-            Object expected) {
-
-        // add test report to the full test report
-        return this.addSuccess("Success in the test number "
-                + (numberOfTests + 1) + "\n" + testname + "\n"
-                + "actual:     " + Printer.produceString(actual) + "\n"
-                + "expected:   " + Printer.produceString(expected) + "\n");
+    private ErrorReport captureTrace() {
+        return new ErrorReport("Error trace:");
     }
 
     /**
-     * Add a test to the list of failed tests
+     * Add the given successful test result to the full report
      * 
-     * @param testname
-     *            The name of the failed range test
-     * @param actual
-     *            The computed value of the test
-     * @param low
-     *            The low (inclusive) value of the range
-     * @param high
-     *            The high (exclusive) value of the range
+     * @param testResult
+     *            The successful test result
      */
-    private boolean reportSuccess(String testname, Object actual, Object low,
-            Object high) {
-
-        // add test report to the full test report
-        return this.addSuccess("Success in the range test number "
-                + (numberOfTests + 1) + "\n" + testname + "\n"
-                + "actual:     " + Printer.produceString(actual) + "\n"
-                + "low:   " + Printer.produceString(low) + "\n" + "high:   "
-                + Printer.produceString(high) + "\n");
+    private boolean addSuccess(String testResult) {
+        return this.addSuccess(new TestRecord(true, testResult));
     }
 
     /**
-     * Add the given test successful test result to the full report
+     * Add the given successful test result to the full report
      * 
      * @param testResult
      *            The successful test result
      */
-    private boolean addSuccess(String testResult) {
-        this.numberOfTests = this.numberOfTests + 1;
-        this.fullTestResults = this.fullTestResults.append("\n" + testResult);
+    private boolean addSuccess(TestRecord testResult) {
         // update the count of all tests
+        this.numberOfTests = this.numberOfTests + 1;
+        this.results.success(testResult);
         return true;
     }
 
     /**
-     * Add the given test failed test result to the full report and to the
-     * error report
+     * Add the given failed test result to the full report and to the error
+     * report
      * 
      * @param testResult
      *            The failed test result
      */
-    private boolean addError(String testResult) {
+    private boolean addError(TestRecord testResult) {
         // update the count of all tests
         this.numberOfTests = this.numberOfTests + 1;
         // update the count of the errors tests
         this.errors = this.errors + 1;
-        this.testResults = this.testResults + "\n" + testResult;
-        this.fullTestResults = this.fullTestResults.append("\n" + testResult);
+        this.results.failure(testResult);
         return false;
     }
 
@@ -1704,20 +1880,34 @@ public class Tester {
         return tCount;
     }
 
+    /**
+     * Copy the results kept by a <code>BufferedResultSink</code> to the
+     * deprecated <code>testResults</code> and <code>fullTestResults</code>,
+     * for the subclasses that still read them
+     */
+    @SuppressWarnings("deprecation")
+    private void copyResults() {
+        if (this.results instanceof BufferedResultSink) {
+            BufferedResultSink kept = (BufferedResultSink) this.results;
+            this.testResults = "Test results: \n--------------\n"
+                    + kept.failureReports();
+            this.fullTestResults = new StringBuilder("Full test results: "
+                    + "\n-------------------\n").append(kept.allReports());
+        }
+    }
+
     /**
      * Report on the number and nature of failed tests
      */
     protected void testReport() {
-        System.out.println(testCount() + this.testResults
-                + "\n--- END OF TEST RESULTS ---");
+        this.results.finish(testCount(), false, this.out);
     }
 
     /**
      * Produce test names and values compared for all tests
      */
     protected void fullTestReport() {
-        System.out.println(testCount() + this.fullTestResults
-                + "\n--- END OF FULL TEST RESULTS ---");
+        this.results.finish(testCount(), true, this.out);
     }
 
     /*--------------------------------------------------------------------*/
@@ -1,19 +1,30 @@
 package tester.cobertura;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
 import java.net.URL;
 import java.util.Set;
 
 import org.scannotation.AnnotationDB;
+import org.scannotation.ArchiveIndexCache;
 import org.scannotation.ClasspathUrlFinder;
 
+import tester.ParallelRunner;
+
 /**
  * This class serves the purpose of scanning all of the classes in
  * the class path for an annotation with a particular name or class.
  * It is preferable to use a class rather than a name, but they should 
  * produce the same result (although efficiency will most likely suffer
  * with a String).    
+ * The indexes of the scanned archives are cached in the directory given
+ * by the system property <code>tester.scanCache</code> (by default in 
+ * <code>.cache/nu-tester-scan</code> under the user's home directory), so
+ * that the archives that do not change are not scanned again on the next
+ * run. Set the property to <code>none</code> to scan everything every time.
  * @author Weston Jossey
  * @since December 12 2008
  * @version 1.0
@@ -22,6 +33,9 @@ import org.scannotation.ClasspathUrlFinder;
  */
 public class AnnotationScanner {
 	
+	/** the system property that sets the directory of the index cache */
+	public static final String CACHE_PROPERTY = "tester.scanCache";
+
 	private String name;
 	private Class<? extends Annotation> c;
 
@@ -45,6 +59,19 @@ public class AnnotationScanner {
 		URL[] urls = ClasspathUrlFinder.findClassPaths(); // scan
 															// java.class.path
 		AnnotationDB db = new AnnotationDB();
+		// scan the archives on as many threads as the tests will run on
+		db.setScanThreads(ParallelRunner.defaultThreads());
+		db.setIndexCache(indexCache());
+		// only index the classes that may carry the annotation
+		String wanted = (this.name != null) ? this.name
+				: (c != null) ? c.getName() : null;
+		if (wanted != null)
+			db.setWantedAnnotations(wanted);
+		if (this.name == null && c != null && onTypesOnly(c)) {
+			db.setScanMethodAnnotations(false);
+			db.setScanParameterAnnotations(false);
+			db.setScanFieldAnnotations(false);
+		}
 		try {
 			db.scanArchives(urls);
 			if(this.name != null)
@@ -59,4 +86,36 @@ public class AnnotationScanner {
 		}
 	}
 
+	/**
+	 * Can the given annotation only be applied to types?
+	 * @param c the annotation class
+	 * @return true if its <code>@Target</code> names types only
+	 */
+	private static boolean onTypesOnly(Class<? extends Annotation> c) {
+		Target target = c.getAnnotation(Target.class);
+		if (target == null)
+			return false;
+		for (ElementType type : target.value())
+			if (type != ElementType.TYPE && type != ElementType.ANNOTATION_TYPE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Produce the index cache in the directory given by the 
+	 * <code>tester.scanCache</code> system property, or in the user's own
+	 * cache directory when the property is not set. (A shared directory,
+	 * such as the temporary one, would let other users plant entries.)
+	 * @return the cache, or null if the property is <code>none</code>
+	 */
+	public static ArchiveIndexCache indexCache() {
+		String dir = System.getProperty(CACHE_PROPERTY);
+		if (dir == null || dir.trim().length() == 0)
+			return new ArchiveIndexCache(new File(new File(
+					System.getProperty("user.home"), ".cache"), "nu-tester-scan"));
+		if (dir.trim().equalsIgnoreCase("none"))
+			return null;
+		return new ArchiveIndexCache(new File(dir.trim()));
+	}
+
 }